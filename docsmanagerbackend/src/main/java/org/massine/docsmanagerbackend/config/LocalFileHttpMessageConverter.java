@@ -0,0 +1,70 @@
+package org.massine.docsmanagerbackend.config;
+
+import org.massine.docsmanagerbackend.services.storage.LocalFileResource;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes {@link LocalFileResource} bodies without pulling the bytes through the heap, using
+ * {@link FileChannel#transferTo} on the channel the resource already holds. The bytes are sent
+ * from that open channel rather than by file name, so a cache file evicted or invalidated
+ * meanwhile is still read in full, and the resource is only closed once the body is written.
+ */
+public class LocalFileHttpMessageConverter extends AbstractHttpMessageConverter<LocalFileResource> {
+
+    public LocalFileHttpMessageConverter() {
+        super(MediaType.ALL);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return LocalFileResource.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected LocalFileResource readInternal(Class<? extends LocalFileResource> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("LocalFileResource is write-only", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(LocalFileResource resource, MediaType contentType) {
+        return resource.length();
+    }
+
+    @Override
+    protected MediaType getDefaultContentType(LocalFileResource resource) {
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+
+    @Override
+    protected void writeInternal(LocalFileResource resource, HttpOutputMessage outputMessage) throws IOException {
+        try (resource) {
+            OutputStream body = outputMessage.getBody();
+            WritableByteChannel target = Channels.newChannel(body);
+            FileChannel source = resource.channel();
+            long position = resource.position();
+            long remaining = resource.length();
+            while (remaining > 0) {
+                long sent = source.transferTo(position, remaining, target);
+                if (sent <= 0) break;
+                position += sent;
+                remaining -= sent;
+            }
+            body.flush();
+        }
+    }
+}
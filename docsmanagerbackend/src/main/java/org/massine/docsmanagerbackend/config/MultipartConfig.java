@@ -1,5 +1,6 @@
 package org.massine.docsmanagerbackend.config;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.multipart.MultipartResolver;
@@ -7,8 +8,17 @@ import org.springframework.web.multipart.support.StandardServletMultipartResolve
 
 @Configuration
 public class MultipartConfig {
+
+    public static final String STREAMING_UPLOAD_PATH = "/api/files/upload/stream";
+
     @Bean
     public MultipartResolver multipartResolver() {
-        return new StandardServletMultipartResolver();
+        return new StandardServletMultipartResolver() {
+            @Override
+            public boolean isMultipart(HttpServletRequest request) {
+                if (request.getRequestURI().endsWith(STREAMING_UPLOAD_PATH)) return false;
+                return super.isMultipart(request);
+            }
+        };
     }
 }
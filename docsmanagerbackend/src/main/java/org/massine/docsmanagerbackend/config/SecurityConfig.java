@@ -89,7 +89,7 @@ public class SecurityConfig {
         var c = new CorsConfiguration();
         c.setAllowedOrigins(allowedOrigins);
         c.setAllowedMethods(List.of("GET","POST","PUT","PATCH","DELETE","OPTIONS"));
-        c.setAllowedHeaders(List.of("Authorization","Content-Type","Accept"));
+        c.setAllowedHeaders(List.of("Authorization","Content-Type","Accept","Range","If-Range"));
         c.setAllowCredentials(false);
         var s = new UrlBasedCorsConfigurationSource();
         s.registerCorsConfiguration("/**", c);
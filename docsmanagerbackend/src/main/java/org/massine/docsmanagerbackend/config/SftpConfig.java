@@ -1,11 +1,14 @@
 package org.massine.docsmanagerbackend.config;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Duration;
+
 @Configuration
 @ConfigurationProperties(prefix = "sftp")
 @Validated
@@ -25,6 +28,12 @@ public class SftpConfig {
     @NotBlank
     private String baseDirectory;
 
+    @Valid
+    private final SessionPool pool = new SessionPool();
+
+    @Valid
+    private final Gate gate = new Gate();
+
     public String getHost() { return host; }
     public void setHost(String host) { this.host = host; }
 
@@ -40,9 +49,78 @@ public class SftpConfig {
     public String getBaseDirectory() { return baseDirectory; }
     public void setBaseDirectory(String baseDirectory) { this.baseDirectory = baseDirectory; }
 
+    public SessionPool getPool() { return pool; }
+
+    public Gate getGate() { return gate; }
+
     public String normalizedBaseDir() {
         return baseDirectory != null && baseDirectory.endsWith("/")
                 ? baseDirectory.substring(0, baseDirectory.length() - 1)
                 : baseDirectory;
     }
+
+    public static class SessionPool {
+        @Min(0)
+        private int minIdle = 1;
+
+        @Min(1)
+        private int maxSize = 5;
+
+        @Min(1)
+        private int maxChannelsPerSession = 4;
+
+        private Duration acquireTimeout = Duration.ofSeconds(10);
+        private Duration maxIdleTime = Duration.ofMinutes(5);
+        private Duration keepaliveInterval = Duration.ofSeconds(30);
+        private Duration evictionInterval = Duration.ofSeconds(30);
+        private boolean validateOnBorrow = true;
+        private boolean warmUp = true;
+
+        public int getMinIdle() { return minIdle; }
+        public void setMinIdle(int minIdle) { this.minIdle = minIdle; }
+
+        public int getMaxSize() { return maxSize; }
+        public void setMaxSize(int maxSize) { this.maxSize = maxSize; }
+
+        public int getMaxChannelsPerSession() { return maxChannelsPerSession; }
+        public void setMaxChannelsPerSession(int maxChannelsPerSession) { this.maxChannelsPerSession = maxChannelsPerSession; }
+
+        public Duration getAcquireTimeout() { return acquireTimeout; }
+        public void setAcquireTimeout(Duration acquireTimeout) { this.acquireTimeout = acquireTimeout; }
+
+        public Duration getMaxIdleTime() { return maxIdleTime; }
+        public void setMaxIdleTime(Duration maxIdleTime) { this.maxIdleTime = maxIdleTime; }
+
+        public Duration getKeepaliveInterval() { return keepaliveInterval; }
+        public void setKeepaliveInterval(Duration keepaliveInterval) { this.keepaliveInterval = keepaliveInterval; }
+
+        public Duration getEvictionInterval() { return evictionInterval; }
+        public void setEvictionInterval(Duration evictionInterval) { this.evictionInterval = evictionInterval; }
+
+        public boolean isValidateOnBorrow() { return validateOnBorrow; }
+        public void setValidateOnBorrow(boolean validateOnBorrow) { this.validateOnBorrow = validateOnBorrow; }
+
+        public boolean isWarmUp() { return warmUp; }
+        public void setWarmUp(boolean warmUp) { this.warmUp = warmUp; }
+    }
+
+    public static class Gate {
+        /** 0 means one operation per pooled channel. */
+        @Min(0)
+        private int maxConcurrent = 0;
+
+        @Min(0)
+        private int maxWaiting = 1000;
+
+        private Duration maxWait = Duration.ofSeconds(30);
+
+        public int getMaxConcurrent() { return maxConcurrent; }
+        public void setMaxConcurrent(int maxConcurrent) { this.maxConcurrent = maxConcurrent; }
+
+        public int getMaxWaiting() { return maxWaiting; }
+        public void setMaxWaiting(int maxWaiting) { this.maxWaiting = maxWaiting; }
+
+        public Duration getMaxWait() { return maxWait; }
+        public void setMaxWait(Duration maxWait) { this.maxWait = maxWait; }
+    }
 }
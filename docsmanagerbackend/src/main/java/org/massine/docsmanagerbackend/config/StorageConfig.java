@@ -0,0 +1,417 @@
+package org.massine.docsmanagerbackend.config;
+
+import jakarta.validation.constraints.NotBlank;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+@ConfigurationProperties(prefix = "storage")
+@Validated
+public class StorageConfig {
+    @NotBlank
+    private String backend = "sftp";
+
+    private final Local local = new Local();
+
+    private final Cache cache = new Cache();
+
+    private final ParallelFetch parallelFetch = new ParallelFetch();
+
+    private final ChunkedUpload chunkedUpload = new ChunkedUpload();
+
+    private final AsyncUpload asyncUpload = new AsyncUpload();
+
+    private final Compression compression = new Compression();
+
+    private final Renditions renditions = new Renditions();
+
+    private final Expiration expiration = new Expiration();
+
+    private final Reconciliation reconciliation = new Reconciliation();
+
+    private final PoolDeletion poolDeletion = new PoolDeletion();
+
+    private final Quota quota = new Quota();
+
+    private final MetadataVerifier metadataVerifier = new MetadataVerifier();
+
+    private final HttpCache httpCache = new HttpCache();
+
+    private final Transfers transfers = new Transfers();
+
+    private final Limiter limiter = new Limiter();
+
+    public String getBackend() { return backend; }
+    public void setBackend(String backend) { this.backend = backend; }
+
+    public Local getLocal() { return local; }
+
+    public Cache getCache() { return cache; }
+
+    public ParallelFetch getParallelFetch() { return parallelFetch; }
+
+    public ChunkedUpload getChunkedUpload() { return chunkedUpload; }
+
+    public AsyncUpload getAsyncUpload() { return asyncUpload; }
+
+    public Compression getCompression() { return compression; }
+
+    public Renditions getRenditions() { return renditions; }
+
+    public Expiration getExpiration() { return expiration; }
+
+    public Reconciliation getReconciliation() { return reconciliation; }
+
+    public PoolDeletion getPoolDeletion() { return poolDeletion; }
+
+    public Quota getQuota() { return quota; }
+
+    public MetadataVerifier getMetadataVerifier() { return metadataVerifier; }
+
+    public HttpCache getHttpCache() { return httpCache; }
+
+    public Transfers getTransfers() { return transfers; }
+
+    public Limiter getLimiter() { return limiter; }
+
+    public static class Local {
+        private String root;
+
+        public String getRoot() { return root; }
+        public void setRoot(String root) { this.root = root; }
+    }
+
+    public static class Cache {
+        private boolean enabled = true;
+        private DataSize memoryMaxSize = DataSize.ofMegabytes(64);
+        private DataSize memoryMaxObjectSize = DataSize.ofMegabytes(1);
+        private DataSize diskMaxSize = DataSize.ofGigabytes(1);
+        private DataSize diskMaxObjectSize = DataSize.ofMegabytes(50);
+        private String diskDirectory = System.getProperty("java.io.tmpdir") + "/docsmanager-cache";
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public DataSize getMemoryMaxSize() { return memoryMaxSize; }
+        public void setMemoryMaxSize(DataSize memoryMaxSize) { this.memoryMaxSize = memoryMaxSize; }
+
+        public DataSize getMemoryMaxObjectSize() { return memoryMaxObjectSize; }
+        public void setMemoryMaxObjectSize(DataSize memoryMaxObjectSize) { this.memoryMaxObjectSize = memoryMaxObjectSize; }
+
+        public DataSize getDiskMaxSize() { return diskMaxSize; }
+        public void setDiskMaxSize(DataSize diskMaxSize) { this.diskMaxSize = diskMaxSize; }
+
+        public DataSize getDiskMaxObjectSize() { return diskMaxObjectSize; }
+        public void setDiskMaxObjectSize(DataSize diskMaxObjectSize) { this.diskMaxObjectSize = diskMaxObjectSize; }
+
+        public String getDiskDirectory() { return diskDirectory; }
+        public void setDiskDirectory(String diskDirectory) { this.diskDirectory = diskDirectory; }
+    }
+
+    public static class ParallelFetch {
+        private boolean enabled = false;
+        private DataSize threshold = DataSize.ofMegabytes(32);
+        private DataSize chunkSize = DataSize.ofMegabytes(4);
+        private int parallelism = 4;
+        private int maxThreads = 16;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public DataSize getThreshold() { return threshold; }
+        public void setThreshold(DataSize threshold) { this.threshold = threshold; }
+
+        public DataSize getChunkSize() { return chunkSize; }
+        public void setChunkSize(DataSize chunkSize) { this.chunkSize = chunkSize; }
+
+        public int getParallelism() { return parallelism; }
+        public void setParallelism(int parallelism) { this.parallelism = parallelism; }
+
+        public int getMaxThreads() { return maxThreads; }
+        public void setMaxThreads(int maxThreads) { this.maxThreads = maxThreads; }
+    }
+
+    public static class ChunkedUpload {
+        private DataSize defaultChunkSize = DataSize.ofMegabytes(8);
+        private DataSize minChunkSize = DataSize.ofMegabytes(1);
+        private DataSize maxChunkSize = DataSize.ofMegabytes(64);
+        private DataSize maxSize = DataSize.ofGigabytes(20);
+        private Duration sessionTtl = Duration.ofHours(24);
+        private String stagingDirectory = ".uploads";
+
+        public DataSize getDefaultChunkSize() { return defaultChunkSize; }
+        public void setDefaultChunkSize(DataSize defaultChunkSize) { this.defaultChunkSize = defaultChunkSize; }
+
+        public DataSize getMinChunkSize() { return minChunkSize; }
+        public void setMinChunkSize(DataSize minChunkSize) { this.minChunkSize = minChunkSize; }
+
+        public DataSize getMaxChunkSize() { return maxChunkSize; }
+        public void setMaxChunkSize(DataSize maxChunkSize) { this.maxChunkSize = maxChunkSize; }
+
+        public DataSize getMaxSize() { return maxSize; }
+        public void setMaxSize(DataSize maxSize) { this.maxSize = maxSize; }
+
+        public Duration getSessionTtl() { return sessionTtl; }
+        public void setSessionTtl(Duration sessionTtl) { this.sessionTtl = sessionTtl; }
+
+        public String getStagingDirectory() { return stagingDirectory; }
+        public void setStagingDirectory(String stagingDirectory) { this.stagingDirectory = stagingDirectory; }
+    }
+
+    public static class AsyncUpload {
+        private String stagingDirectory = System.getProperty("java.io.tmpdir") + "/docsmanager-staging";
+        private int workers = 2;
+        private int queueCapacity = 100;
+        private int maxAttempts = 5;
+        private Duration initialBackoff = Duration.ofSeconds(2);
+        private Duration maxBackoff = Duration.ofMinutes(5);
+        private Duration retention = Duration.ofHours(24);
+
+        public String getStagingDirectory() { return stagingDirectory; }
+        public void setStagingDirectory(String stagingDirectory) { this.stagingDirectory = stagingDirectory; }
+
+        public int getWorkers() { return workers; }
+        public void setWorkers(int workers) { this.workers = workers; }
+
+        public int getQueueCapacity() { return queueCapacity; }
+        public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+
+        public int getMaxAttempts() { return maxAttempts; }
+        public void setMaxAttempts(int maxAttempts) { this.maxAttempts = maxAttempts; }
+
+        public Duration getInitialBackoff() { return initialBackoff; }
+        public void setInitialBackoff(Duration initialBackoff) { this.initialBackoff = initialBackoff; }
+
+        public Duration getMaxBackoff() { return maxBackoff; }
+        public void setMaxBackoff(Duration maxBackoff) { this.maxBackoff = maxBackoff; }
+
+        public Duration getRetention() { return retention; }
+        public void setRetention(Duration retention) { this.retention = retention; }
+    }
+
+    public static class Compression {
+        private boolean enabled = false;
+        private int level = 6;
+        private List<String> extensions = new ArrayList<>(List.of(
+                "txt", "csv", "tsv", "json", "xml", "svg", "html", "htm", "md", "log", "yaml", "yml", "js", "css"));
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public int getLevel() { return level; }
+        public void setLevel(int level) { this.level = level; }
+
+        public List<String> getExtensions() { return extensions; }
+        public void setExtensions(List<String> extensions) { this.extensions = extensions; }
+    }
+
+    public static class Renditions {
+        private boolean enabled = true;
+        private List<Integer> sizes = new ArrayList<>(List.of(128, 256, 512));
+        private float quality = 0.8f;
+        private int workers = 1;
+        private int queueCapacity = 500;
+        private DataSize maxSourceSize = DataSize.ofMegabytes(64);
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public List<Integer> getSizes() { return sizes; }
+        public void setSizes(List<Integer> sizes) { this.sizes = sizes; }
+
+        public float getQuality() { return quality; }
+        public void setQuality(float quality) { this.quality = quality; }
+
+        public int getWorkers() { return workers; }
+        public void setWorkers(int workers) { this.workers = workers; }
+
+        public int getQueueCapacity() { return queueCapacity; }
+        public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+
+        public DataSize getMaxSourceSize() { return maxSourceSize; }
+        public void setMaxSourceSize(DataSize maxSourceSize) { this.maxSourceSize = maxSourceSize; }
+    }
+
+    public static class Expiration {
+        private boolean enabled = true;
+        private int batchSize = 200;
+        private int maxFilesPerRun = 5000;
+        private int deletesPerSecond = 20;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public int getBatchSize() { return batchSize; }
+        public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+
+        public int getMaxFilesPerRun() { return maxFilesPerRun; }
+        public void setMaxFilesPerRun(int maxFilesPerRun) { this.maxFilesPerRun = maxFilesPerRun; }
+
+        public int getDeletesPerSecond() { return deletesPerSecond; }
+        public void setDeletesPerSecond(int deletesPerSecond) { this.deletesPerSecond = deletesPerSecond; }
+    }
+
+    public static class Reconciliation {
+        private boolean enabled = false;
+        private boolean repair = false;
+        private Duration grace = Duration.ofHours(6);
+        private int parallelism = 4;
+        private int maxFindings = 10_000;
+        private List<String> excludedDirectories = new ArrayList<>(List.of(".uploads"));
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public boolean isRepair() { return repair; }
+        public void setRepair(boolean repair) { this.repair = repair; }
+
+        public Duration getGrace() { return grace; }
+        public void setGrace(Duration grace) { this.grace = grace; }
+
+        public int getParallelism() { return parallelism; }
+        public void setParallelism(int parallelism) { this.parallelism = parallelism; }
+
+        public int getMaxFindings() { return maxFindings; }
+        public void setMaxFindings(int maxFindings) { this.maxFindings = maxFindings; }
+
+        public List<String> getExcludedDirectories() { return excludedDirectories; }
+        public void setExcludedDirectories(List<String> excludedDirectories) { this.excludedDirectories = excludedDirectories; }
+    }
+
+    public static class PoolDeletion {
+        private int parallelism = 4;
+
+        public int getParallelism() { return parallelism; }
+        public void setParallelism(int parallelism) { this.parallelism = parallelism; }
+    }
+
+    public static class Quota {
+        private DataSize poolMaxSize;
+        private DataSize userMaxSize;
+
+        public DataSize getPoolMaxSize() { return poolMaxSize; }
+        public void setPoolMaxSize(DataSize poolMaxSize) { this.poolMaxSize = poolMaxSize; }
+
+        public DataSize getUserMaxSize() { return userMaxSize; }
+        public void setUserMaxSize(DataSize userMaxSize) { this.userMaxSize = userMaxSize; }
+    }
+
+    public static class MetadataVerifier {
+        private boolean enabled = true;
+        private int batchSize = 200;
+        private int maxFilesPerRun = 20_000;
+        private int statsPerSecond = 20;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public int getBatchSize() { return batchSize; }
+        public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+
+        public int getMaxFilesPerRun() { return maxFilesPerRun; }
+        public void setMaxFilesPerRun(int maxFilesPerRun) { this.maxFilesPerRun = maxFilesPerRun; }
+
+        public int getStatsPerSecond() { return statsPerSecond; }
+        public void setStatsPerSecond(int statsPerSecond) { this.statsPerSecond = statsPerSecond; }
+    }
+
+    public static class HttpCache {
+        private Duration privateMaxAge = Duration.ZERO;
+        private Duration publicMaxAge = Duration.ofMinutes(5);
+
+        public Duration getPrivateMaxAge() { return privateMaxAge; }
+        public void setPrivateMaxAge(Duration privateMaxAge) { this.privateMaxAge = privateMaxAge; }
+
+        public Duration getPublicMaxAge() { return publicMaxAge; }
+        public void setPublicMaxAge(Duration publicMaxAge) { this.publicMaxAge = publicMaxAge; }
+    }
+
+    /** Per-user, per-pool and public caps of 0 mean no cap of their own. */
+    public static class Transfers {
+        private boolean enabled = true;
+        private int maxConcurrent = 16;
+        private int perUserMaxConcurrent = 4;
+        private int perPoolMaxConcurrent = 8;
+        private int publicMaxConcurrent = 4;
+        private DataSize smallTransferSize = DataSize.ofMegabytes(4);
+        private int interactiveWeight = 8;
+        private int bulkWeight = 2;
+        private int publicWeight = 1;
+        private int maxQueued = 500;
+        private Duration maxWait = Duration.ofSeconds(20);
+        private Duration retryAfter = Duration.ofSeconds(5);
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public int getMaxConcurrent() { return maxConcurrent; }
+        public void setMaxConcurrent(int maxConcurrent) { this.maxConcurrent = maxConcurrent; }
+
+        public int getPerUserMaxConcurrent() { return perUserMaxConcurrent; }
+        public void setPerUserMaxConcurrent(int perUserMaxConcurrent) { this.perUserMaxConcurrent = perUserMaxConcurrent; }
+
+        public int getPerPoolMaxConcurrent() { return perPoolMaxConcurrent; }
+        public void setPerPoolMaxConcurrent(int perPoolMaxConcurrent) { this.perPoolMaxConcurrent = perPoolMaxConcurrent; }
+
+        public int getPublicMaxConcurrent() { return publicMaxConcurrent; }
+        public void setPublicMaxConcurrent(int publicMaxConcurrent) { this.publicMaxConcurrent = publicMaxConcurrent; }
+
+        public DataSize getSmallTransferSize() { return smallTransferSize; }
+        public void setSmallTransferSize(DataSize smallTransferSize) { this.smallTransferSize = smallTransferSize; }
+
+        public int getInteractiveWeight() { return interactiveWeight; }
+        public void setInteractiveWeight(int interactiveWeight) { this.interactiveWeight = interactiveWeight; }
+
+        public int getBulkWeight() { return bulkWeight; }
+        public void setBulkWeight(int bulkWeight) { this.bulkWeight = bulkWeight; }
+
+        public int getPublicWeight() { return publicWeight; }
+        public void setPublicWeight(int publicWeight) { this.publicWeight = publicWeight; }
+
+        public int getMaxQueued() { return maxQueued; }
+        public void setMaxQueued(int maxQueued) { this.maxQueued = maxQueued; }
+
+        public Duration getMaxWait() { return maxWait; }
+        public void setMaxWait(Duration maxWait) { this.maxWait = maxWait; }
+
+        public Duration getRetryAfter() { return retryAfter; }
+        public void setRetryAfter(Duration retryAfter) { this.retryAfter = retryAfter; }
+    }
+
+    public static class Limiter {
+        private boolean enabled = true;
+        private int initialLimit = 20;
+        private int minLimit = 2;
+        private int maxLimit = 200;
+        private Duration latencyThreshold = Duration.ofSeconds(1);
+        private double backoffRatio = 0.9;
+        private Duration retryAfter = Duration.ofSeconds(2);
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public int getInitialLimit() { return initialLimit; }
+        public void setInitialLimit(int initialLimit) { this.initialLimit = initialLimit; }
+
+        public int getMinLimit() { return minLimit; }
+        public void setMinLimit(int minLimit) { this.minLimit = minLimit; }
+
+        public int getMaxLimit() { return maxLimit; }
+        public void setMaxLimit(int maxLimit) { this.maxLimit = maxLimit; }
+
+        public Duration getLatencyThreshold() { return latencyThreshold; }
+        public void setLatencyThreshold(Duration latencyThreshold) { this.latencyThreshold = latencyThreshold; }
+
+        public double getBackoffRatio() { return backoffRatio; }
+        public void setBackoffRatio(double backoffRatio) { this.backoffRatio = backoffRatio; }
+
+        public Duration getRetryAfter() { return retryAfter; }
+        public void setRetryAfter(Duration retryAfter) { this.retryAfter = retryAfter; }
+    }
+}
@@ -1,29 +1,59 @@
 package org.massine.docsmanagerbackend.controllers;
 
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.commons.fileupload2.core.DiskFileItem;
+import org.apache.commons.fileupload2.core.DiskFileItemFactory;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.core.FileUploadException;
+import org.apache.commons.fileupload2.core.FileUploadSizeException;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletFileUpload;
 import org.massine.docsmanagerbackend.config.CurrentUserProvider;
 import org.massine.docsmanagerbackend.config.SftpConfig;
+import org.massine.docsmanagerbackend.dto.ArchiveRequest;
+import org.massine.docsmanagerbackend.dto.CreateFromHashRequest;
 import org.massine.docsmanagerbackend.exceptions.ErrorResponse;
+import org.massine.docsmanagerbackend.exceptions.QuotaExceededException;
+import org.massine.docsmanagerbackend.exceptions.StorageOverloadedException;
+import org.massine.docsmanagerbackend.models.Blob;
 import org.massine.docsmanagerbackend.models.File;
 import org.massine.docsmanagerbackend.models.Pool;
 import org.massine.docsmanagerbackend.models.User;
 import org.massine.docsmanagerbackend.services.AccessService;
+import org.massine.docsmanagerbackend.services.ArchiveService;
+import org.massine.docsmanagerbackend.services.AsyncUploadService;
+import org.massine.docsmanagerbackend.services.BlobService.StoredBlob;
+import org.massine.docsmanagerbackend.services.FileCachePolicy;
 import org.massine.docsmanagerbackend.services.FileService;
 import org.massine.docsmanagerbackend.services.PoolService;
+import org.massine.docsmanagerbackend.services.RenditionService;
+import org.massine.docsmanagerbackend.services.StorageUsageService;
+import org.massine.docsmanagerbackend.services.TransferScheduler;
 import org.massine.docsmanagerbackend.services.UserService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
 import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 @RestController
@@ -36,6 +66,16 @@ public class FileController {
     private final CurrentUserProvider currentUser;
     private final SftpConfig sftpConfig;
     private final AccessService accessService;
+    private final MultipartProperties multipartProperties;
+    private final AsyncUploadService asyncUploads;
+    private final ArchiveService archiveService;
+    private final RenditionService renditions;
+    private final StorageUsageService storageUsage;
+    private final FileCachePolicy cachePolicy;
+    private final TransferScheduler transfers;
+
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_FIELD_BYTES = 64 * 1024;
 
     private static final Logger log = LoggerFactory.getLogger(FileController.class);
 
@@ -44,13 +84,27 @@ public class FileController {
             PoolService poolService,
             CurrentUserProvider currentUser,
             SftpConfig sftpConfig,
-            AccessService accessService 
+            AccessService accessService,
+            MultipartProperties multipartProperties,
+            AsyncUploadService asyncUploads,
+            ArchiveService archiveService,
+            RenditionService renditions,
+            StorageUsageService storageUsage,
+            FileCachePolicy cachePolicy,
+            TransferScheduler transfers
     ) {
         this.fileService = fileService;
         this.poolService = poolService;
         this.currentUser = currentUser;
         this.sftpConfig = sftpConfig;
         this.accessService = accessService;
+        this.multipartProperties = multipartProperties;
+        this.asyncUploads = asyncUploads;
+        this.archiveService = archiveService;
+        this.renditions = renditions;
+        this.storageUsage = storageUsage;
+        this.cachePolicy = cachePolicy;
+        this.transfers = transfers;
     }
 
 
@@ -163,17 +217,23 @@ public class FileController {
                     .body(null);
         }
 
+        String oldHash = existingFile.getContentHash();
+        String oldPath = existingFile.getPath();
+        Long oldSize = existingFile.getSize();
+        StoredBlob stored = null;
         try {
-            if (newContent != null && !newContent.isEmpty()) {
-                String oldPath = existingFile.getPath();
-                int lastSlash = oldPath.lastIndexOf('/');
-                String remoteDir = (lastSlash > 0) ? oldPath.substring(0, lastSlash) : sftpConfig.normalizedBaseDir();
+            LocalDate expirationDate = null;
+            if (expirationDateStr != null && !expirationDateStr.isBlank()) {
+                expirationDate = LocalDate.parse(expirationDateStr);
+            }
 
+            if (newContent != null && !newContent.isEmpty()) {
+                storageUsage.checkQuota(existingFile.getPool().getId(), existingFile.getUserUploader().getId(),
+                        newContent.getSize() - (oldSize == null ? 0L : oldSize));
                 String safeName = fileService.sanitizeFilename(newContent.getOriginalFilename());
-                fileService.deleteRemote(oldPath);
-                fileService.uploadToDir(remoteDir, safeName, newContent.getInputStream());
+                stored = fileService.storeContent(newContent.getInputStream(), safeName);
                 existingFile.setName(safeName);
-                existingFile.setPath(remoteDir + "/" + safeName);
+                fileService.applyContent(existingFile, stored);
             } else if (name != null && !name.isBlank()) {
                 existingFile.setName(name);
             }
@@ -182,19 +242,22 @@ public class FileController {
                 existingFile.setDescription(description);
             }
 
-            if (expirationDateStr != null && !expirationDateStr.isBlank()) {
-                try {
-                    existingFile.setExpirationDate(LocalDate.parse(expirationDateStr));
-                } catch (DateTimeParseException e) {
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
-                }
+            if (expirationDate != null) {
+                existingFile.setExpirationDate(expirationDate);
             }
 
-            File updated = fileService.updateFileEntity(id, existingFile);
+            File updated = (stored != null)
+                    ? fileService.replaceFileEntity(id, existingFile, oldHash, oldPath, oldSize)
+                    : fileService.updateFileEntity(id, existingFile);
+            if (stored != null) renditions.schedule(updated);
             return ResponseEntity.ok(updated);
         } catch (DateTimeParseException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        } catch (QuotaExceededException e) {
+            if (stored != null) releaseQuietly(stored);
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
         } catch (Exception e) {
+            if (stored != null) releaseQuietly(stored);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
@@ -219,12 +282,11 @@ public class FileController {
         }
 
         try {
-            fileService.deleteRemote(file.getPath());
+            fileService.deleteFileAndContent(file);
         } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
 
-        fileService.deleteFileById(id);
         return ResponseEntity.noContent().build();
     }
 
@@ -242,6 +304,7 @@ public class FileController {
             @RequestParam(value = "description", required = false) String description,
             @RequestParam(value = "expirationDate", required = false) String expirationDateStr)
     {
+     StoredBlob stored = null;
      try {
             User u = currentUser.get();
 
@@ -259,38 +322,31 @@ public class FileController {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
             }
 
-            String remoteDir = fileService.buildRemoteDirFor(poolId, u.getId());
-            String safeName = fileService.sanitizeFilename(file.getOriginalFilename());
-            fileService.uploadToDir(remoteDir, safeName, file.getInputStream());
-
-            String displayName = (name != null && !name.trim().isEmpty()) ? name : safeName;
-
-            if (name != null && !name.trim().isEmpty()) {
-                String originalExtension = getFileExtension(file.getOriginalFilename());
-                if (originalExtension != null && !displayName.toLowerCase().endsWith(originalExtension.toLowerCase())) {
-                    displayName = displayName + originalExtension;
-                }
-            }
-
-            File savedFile = new File();
-            savedFile.setName(displayName);
-            savedFile.setPath(remoteDir + "/" + safeName);
-            savedFile.setPool(pool);
-            savedFile.setUserUploader(u);
-            savedFile.setCreatedAt(Instant.now());
-            savedFile.setDescription(description);
-
+            LocalDate expirationDate = null;
             if (expirationDateStr != null && !expirationDateStr.isBlank()) {
                 try {
-                    savedFile.setExpirationDate(LocalDate.parse(expirationDateStr));
+                    expirationDate = LocalDate.parse(expirationDateStr);
                 } catch (DateTimeParseException e) {
                     return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
                 }
             }
 
+            storageUsage.checkQuota(poolId, u.getId(), file.getSize());
+            String safeName = fileService.sanitizeFilename(file.getOriginalFilename());
+            stored = fileService.storeContent(file.getInputStream(), safeName);
+
+            File savedFile = fileService.newFileRecord(pool, u, name, file.getOriginalFilename(), safeName, description);
+            fileService.applyContent(savedFile, stored);
+            savedFile.setExpirationDate(expirationDate);
+
             File persisted = fileService.saveFile(savedFile);
+            renditions.schedule(persisted);
             return ResponseEntity.status(HttpStatus.CREATED).body(persisted);
+        } catch (QuotaExceededException e) {
+         if (stored != null) releaseQuietly(stored);
+         return quotaExceeded(e);
         } catch (Exception e) {
+         if (stored != null) releaseQuietly(stored);
          String fn = (file != null ? file.getOriginalFilename() : "null");
          long sz = (file != null ? file.getSize() : -1);
          log.error("Upload failed: poolId={}, filename={}, size={}, baseDir={}",
@@ -301,8 +357,221 @@ public class FileController {
     }
 
 
+    /**
+     * Stages the upload locally and answers 202 right away; the transfer to storage runs in the
+     * background and can be followed through {@code /upload/jobs/{jobId}}.
+     */
+    @PostMapping(path = "/upload/async", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> uploadFileAsync(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("poolId") int poolId,
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "description", required = false) String description,
+            @RequestParam(value = "expirationDate", required = false) String expirationDateStr) {
+        User u = currentUser.get();
+
+        Pool pool = poolService.getPoolById(poolId);
+        if (pool == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!accessService.userHasAccessToPool(u.getId(), poolId)
+                || !accessService.userCanModifyInPool(u.getId(), poolId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        try {
+            LocalDate expirationDate = null;
+            if (expirationDateStr != null && !expirationDateStr.isBlank()) {
+                expirationDate = LocalDate.parse(expirationDateStr);
+            }
+            storageUsage.checkQuota(poolId, u.getId(), file.getSize());
+            AsyncUploadService.Job job = asyncUploads.submit(pool, u, file, name, description, expirationDate);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/files/upload/jobs/" + job.manifest().id()))
+                    .body(describeJob(job));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        } catch (QuotaExceededException e) {
+            return quotaExceeded(e);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(Map.of("error", "UPLOAD_QUEUE_FULL"));
+        } catch (Exception e) {
+            log.error("Async upload staging failed: poolId={}, filename={}", poolId, file.getOriginalFilename(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "UPLOAD_FAILED", "detail", String.valueOf(e.getMessage())));
+        }
+    }
+
+    @GetMapping("/upload/jobs/{jobId}")
+    public ResponseEntity<?> uploadJobStatus(@PathVariable String jobId) {
+        User u = currentUser.get();
+        AsyncUploadService.Job job = asyncUploads.find(jobId);
+        if (job == null || job.manifest().userId() != u.getId()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(describeJob(job));
+    }
+
+    /**
+     * Multipart upload parsed incrementally: the file part is piped straight into storage instead of
+     * being spooled to a temp file first. Form fields ({@code poolId}, {@code name}, {@code description},
+     * {@code expirationDate}) must be sent before the {@code file} part.
+     */
+    @PostMapping(path = "/upload/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> uploadFileStreaming(HttpServletRequest request) {
+        Integer poolId = null;
+        String name = null;
+        String description = null;
+        String expirationDateStr = null;
+        String originalName = null;
+        StoredBlob stored = null;
+        try {
+            User u = currentUser.get();
+
+            JakartaServletFileUpload<DiskFileItem, DiskFileItemFactory> upload = new JakartaServletFileUpload<>();
+            upload.setFileSizeMax(multipartProperties.getMaxFileSize().toBytes());
+            upload.setSizeMax(multipartProperties.getMaxRequestSize().toBytes());
+
+            FileItemInputIterator parts = upload.getItemIterator(request);
+            while (parts.hasNext()) {
+                FileItemInput part = parts.next();
+                if (part.isFormField()) {
+                    String value = readField(part);
+                    switch (part.getFieldName()) {
+                        case "poolId" -> poolId = Integer.valueOf(value.trim());
+                        case "name" -> name = value;
+                        case "description" -> description = value;
+                        case "expirationDate" -> expirationDateStr = value;
+                        default -> { }
+                    }
+                    continue;
+                }
+                if (!"file".equals(part.getFieldName())) continue;
+
+                if (poolId == null) {
+                    return ResponseEntity.badRequest().body(Map.of("error", "POOL_ID_REQUIRED_BEFORE_FILE"));
+                }
+                Pool pool = poolService.getPoolById(poolId);
+                if (pool == null) {
+                    return ResponseEntity.badRequest().build();
+                }
+                if (!accessService.userHasAccessToPool(u.getId(), poolId)
+                        || !accessService.userCanModifyInPool(u.getId(), poolId)) {
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+                }
+                LocalDate expirationDate = null;
+                if (expirationDateStr != null && !expirationDateStr.isBlank()) {
+                    expirationDate = LocalDate.parse(expirationDateStr);
+                }
+
+                storageUsage.checkQuota(poolId, u.getId(), Math.max(0L, request.getContentLengthLong()));
+                originalName = part.getName();
+                String safeName = fileService.sanitizeFilename(originalName);
+                stored = fileService.storeContent(new BufferedInputStream(part.getInputStream(), STREAM_BUFFER_SIZE), safeName);
+
+                File savedFile = fileService.newFileRecord(pool, u, name, originalName, safeName, description);
+                fileService.applyContent(savedFile, stored);
+                savedFile.setExpirationDate(expirationDate);
+                File persisted = fileService.saveFile(savedFile);
+                renditions.schedule(persisted);
+                return ResponseEntity.status(HttpStatus.CREATED).body(persisted);
+            }
+            return ResponseEntity.badRequest().body(Map.of("error", "FILE_PART_MISSING"));
+        } catch (QuotaExceededException e) {
+            if (stored != null) releaseQuietly(stored);
+            return quotaExceeded(e);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        } catch (Exception e) {
+            if (stored != null) releaseQuietly(stored);
+            if (isSizeExceeded(e)) {
+                return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                        .body(Map.of("error", "UPLOAD_TOO_LARGE"));
+            }
+            if (stored == null && e instanceof FileUploadException) {
+                return ResponseEntity.badRequest().body(Map.of("error", "MALFORMED_MULTIPART"));
+            }
+            log.error("Streaming upload failed: poolId={}, filename={}, baseDir={}",
+                    poolId, originalName, sftpConfig.normalizedBaseDir(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "UPLOAD_FAILED", "detail", String.valueOf(e.getMessage())));
+        }
+    }
+
+    @GetMapping("/blobs/{hash}")
+    public ResponseEntity<?> checkContent(@PathVariable String hash) {
+        User u = currentUser.get();
+        Blob blob = fileService.findVisibleBlob(hash.toLowerCase(), accessService.getAccessiblePoolIds(u.getId()));
+        if (blob == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of("hash", blob.getHash(), "size", blob.getSize()));
+    }
+
+    @PostMapping("/from-hash")
+    public ResponseEntity<?> createFromHash(@RequestBody CreateFromHashRequest req) {
+        User u = currentUser.get();
+        if (req.getPoolId() == null || req.getHash() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        Pool pool = poolService.getPoolById(req.getPoolId());
+        if (pool == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!accessService.userHasAccessToPool(u.getId(), pool.getId())
+                || !accessService.userCanModifyInPool(u.getId(), pool.getId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        LocalDate expirationDate = null;
+        if (req.getExpirationDate() != null && !req.getExpirationDate().isBlank()) {
+            try {
+                expirationDate = LocalDate.parse(req.getExpirationDate());
+            } catch (DateTimeParseException e) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+            }
+        }
+
+        String hash = req.getHash().toLowerCase();
+        Blob blob = fileService.findVisibleBlob(hash, accessService.getAccessiblePoolIds(u.getId()));
+        if (blob == null) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            storageUsage.checkQuota(pool.getId(), u.getId(), blob.getSize());
+        } catch (QuotaExceededException e) {
+            return quotaExceeded(e);
+        }
+        if (!fileService.addContentReference(hash)) {
+            return ResponseEntity.notFound().build();
+        }
+        StoredBlob stored = StoredBlob.of(blob);
+        try {
+            stored = stored.withContentType(fileService.detectStoredType(stored.key(), stored.encoding(),
+                    stored.storedSize(), req.getFileName()));
+            String safeName = fileService.sanitizeFilename(req.getFileName());
+            File savedFile = fileService.newFileRecord(pool, u, req.getName(), req.getFileName(), safeName, req.getDescription());
+            fileService.applyContent(savedFile, stored);
+            savedFile.setExpirationDate(expirationDate);
+            File persisted = fileService.saveFile(savedFile);
+            renditions.schedule(persisted);
+            return ResponseEntity.status(HttpStatus.CREATED).body(persisted);
+        } catch (QuotaExceededException e) {
+            releaseQuietly(stored);
+            return quotaExceeded(e);
+        } catch (Exception e) {
+            releaseQuietly(stored);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+
     @GetMapping("/download/{fileId}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable int fileId) {
+    public ResponseEntity<Resource> downloadFile(
+            @PathVariable int fileId,
+            @RequestHeader HttpHeaders requestHeaders) {
         User u = currentUser.get();
         
         File file = fileService.getFileById(fileId);
@@ -316,25 +585,44 @@ public class FileController {
         }
 
         try {
-            fileService.incDownload(fileId);
-
-            FileService.RemoteStream rs = fileService.getRemoteStream(file.getPath());
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentDisposition(ContentDisposition.attachment().filename(file.getName()).build());
-            if (rs.length() >= 0) headers.setContentLength(rs.length());
-
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(rs);
+            return FileStreamResponses.counted(FileStreamResponses.download(fileService, transfers, u.getId(), file, cachePolicy.forPool(file.getPool()), requestHeaders),
+                    () -> fileService.incDownload(fileId));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
 
 
+    @PostMapping("/archive")
+    public ResponseEntity<StreamingResponseBody> downloadArchive(@RequestBody ArchiveRequest request) {
+        User u = currentUser.get();
+        if (request.getFileIds() == null || request.getFileIds().isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        List<File> files = new ArrayList<>();
+        for (Integer fileId : request.getFileIds().stream().distinct().toList()) {
+            File file = fileId == null ? null : fileService.getFileById(fileId);
+            if (file == null) {
+                return ResponseEntity.notFound().build();
+            }
+            if (!accessService.userCanAccessFile(u.getId(), file)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            }
+            files.add(file);
+        }
+
+        String filename = (request.getName() != null && !request.getName().isBlank())
+                ? fileService.sanitizeFilename(request.getName()) : "documents";
+        if (!filename.toLowerCase().endsWith(".zip")) filename = filename + ".zip";
+        return FileStreamResponses.zip(archiveService, transfers, u.getId(), files, filename);
+    }
+
+
     @GetMapping("/preview/{id}")
-    public ResponseEntity<Resource> previewFile(@PathVariable int id) {
+    public ResponseEntity<Resource> previewFile(
+            @PathVariable int id,
+            @RequestHeader HttpHeaders requestHeaders) {
         User u = currentUser.get();
         File file = fileService.getFileById(id);
         if (file == null) {
@@ -345,46 +633,111 @@ public class FileController {
         }
 
         try {
-            fileService.incView(id);
-
-            FileService.RemoteStream rs = fileService.getRemoteStream(file.getPath());
-            String fileName = file.getName().toLowerCase();
-            MediaType contentType;
-
-            if (fileName.endsWith(".pdf")) contentType = MediaType.APPLICATION_PDF;
-            else if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg")) contentType = MediaType.IMAGE_JPEG;
-            else if (fileName.endsWith(".png")) contentType = MediaType.IMAGE_PNG;
-            else if (fileName.endsWith(".gif")) contentType = MediaType.IMAGE_GIF;
-            else if (fileName.endsWith(".svg")) contentType = MediaType.valueOf("image/svg+xml");
-            else if (fileName.endsWith(".mp4")) contentType = MediaType.valueOf("video/mp4");
-            else if (fileName.endsWith(".webm")) contentType = MediaType.valueOf("video/webm");
-            else if (fileName.endsWith(".mp3")) contentType = MediaType.valueOf("audio/mpeg");
-            else if (fileName.endsWith(".wav")) contentType = MediaType.valueOf("audio/wav");
-            else if (fileName.endsWith(".txt")) contentType = MediaType.TEXT_PLAIN;
-            else if (fileName.endsWith(".json")) contentType = MediaType.APPLICATION_JSON;
-            else contentType = MediaType.APPLICATION_OCTET_STREAM;
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentDisposition(ContentDisposition.inline().filename(file.getName()).build());
-            headers.add(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, "Content-Type, Content-Disposition");
-            headers.add(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate");
-            if (rs.length() >= 0) headers.setContentLength(rs.length());
+            return FileStreamResponses.counted(FileStreamResponses.preview(fileService, transfers, u.getId(), file, cachePolicy.forPool(file.getPool()), requestHeaders),
+                    () -> fileService.incView(id));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Small JPEG rendition of an image or the first page of a PDF. Answers 202 with {@code Retry-After}
+     * while it is still being generated, and 404 when the file has no rendition. Requests carrying
+     * {@code v=<contentHash>} are cacheable for good since the URL then changes with the content.
+     */
+    @GetMapping("/{id:\\d+}/thumbnail")
+    public ResponseEntity<Resource> thumbnail(
+            @PathVariable int id,
+            @RequestParam(defaultValue = "256") int size,
+            @RequestParam(value = "v", required = false) String version,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        User u = currentUser.get();
+        File file = fileService.getFileById(id);
+        if (file == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!accessService.userCanAccessFile(u.getId(), file)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        String state = file.getRenditionState();
+        if (RenditionService.FAILED.equals(state) || RenditionService.UNSUPPORTED.equals(state)
+                || (state == null && !RenditionService.supports(file.getName()))) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!RenditionService.READY.equals(state)) {
+            renditions.schedule(file);
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.RETRY_AFTER, "2")
+                    .cacheControl(CacheControl.noStore())
+                    .build();
+        }
 
+        int snapped = renditions.snapSize(size);
+        String tag = file.getContentHash() != null ? file.getContentHash() : Integer.toHexString(file.getPath().hashCode());
+        String etag = "\"" + tag + "-" + snapped + "\"";
+        CacheControl cacheControl = (version != null && version.equals(file.getContentHash()))
+                ? CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable()
+                : CacheControl.noCache().cachePrivate();
+        if (etag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+        }
+        try {
             return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentType(contentType)
-                    .body(rs);
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .eTag(etag)
+                    .cacheControl(cacheControl)
+                    .body(fileService.getRemoteStream(RenditionService.keyFor(file.getPath(), snapped)));
+        } catch (StorageOverloadedException e) {
+            return FileStreamResponses.busy(e.getRetryAfterSeconds());
         } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            log.warn("Thumbnail unavailable id={} size={}", id, snapped, e);
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    private static Map<String, Object> describeJob(AsyncUploadService.Job job) {
+        AsyncUploadService.Manifest m = job.manifest();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("jobId", m.id());
+        out.put("status", m.status());
+        out.put("size", m.size());
+        out.put("transferred", job.transferred());
+        out.put("attempts", m.attempts());
+        if (m.fileId() != null) out.put("fileId", m.fileId());
+        if (m.error() != null) out.put("error", m.error());
+        return out;
+    }
+
+    private void releaseQuietly(StoredBlob stored) {
+        try {
+            fileService.releaseContent(stored.hash(), stored.key());
+        } catch (Exception e) {
+            log.warn("Could not release stored content hash={}", stored.hash(), e);
+        }
+    }
+
+    private static String readField(FileItemInput part) throws Exception {
+        try (InputStream in = part.getInputStream()) {
+            byte[] value = in.readNBytes(MAX_FIELD_BYTES);
+            if (in.read() != -1) throw new IllegalArgumentException("Field too large: " + part.getFieldName());
+            return new String(value, StandardCharsets.UTF_8);
         }
     }
 
-    private String getFileExtension(String filename) {
-        if (filename == null) return null;
-        int lastDotIndex = filename.lastIndexOf('.');
-        return lastDotIndex > 0 ? filename.substring(lastDotIndex) : null;
+    private static ResponseEntity<Map<String, Object>> quotaExceeded(QuotaExceededException e) {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(e.toBody());
     }
 
+    private static boolean isSizeExceeded(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof FileUploadSizeException) return true;
+        }
+        return false;
+    }
+
+
 
 }
 
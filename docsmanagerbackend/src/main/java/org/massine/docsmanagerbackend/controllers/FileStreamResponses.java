@@ -0,0 +1,389 @@
+package org.massine.docsmanagerbackend.controllers;
+
+import org.massine.docsmanagerbackend.exceptions.StorageOverloadedException;
+import org.massine.docsmanagerbackend.exceptions.TransferRejectedException;
+import org.massine.docsmanagerbackend.models.File;
+import org.massine.docsmanagerbackend.services.ArchiveService;
+import org.massine.docsmanagerbackend.services.ContentTypes;
+import org.massine.docsmanagerbackend.services.FileService;
+import org.massine.docsmanagerbackend.services.TransferScheduler;
+import org.massine.docsmanagerbackend.services.storage.StorageResource;
+import org.massine.docsmanagerbackend.services.storage.StorageStat;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds download/preview responses, answering single {@code Range} requests with 206 and
+ * reading only the requested bytes from storage, and streamed ZIP archives. Length,
+ * modification time and validators come from the file row, so conditional requests are answered
+ * without touching storage; storage is only asked for the length of rows written before it was
+ * recorded. Every transfer that does reach storage is first admitted by the
+ * {@link TransferScheduler}, which holds the slot until the body stream is closed; {@code userId}
+ * is null for anonymous requests on public pools.
+ */
+final class FileStreamResponses {
+
+    private static final Set<String> INLINE_SAFE = Set.of(
+            MediaType.APPLICATION_PDF_VALUE, MediaType.TEXT_PLAIN_VALUE, "text/csv", "text/markdown",
+            MediaType.APPLICATION_JSON_VALUE);
+
+    private FileStreamResponses() {}
+
+    /**
+     * Runs {@code counter} when {@code response} sends the start of the content, so that a player
+     * fetching a file in ranges is counted once and revalidations answered with 304 are not counted
+     * at all. The body is closed if counting fails, since it will never be written.
+     */
+    static ResponseEntity<Resource> counted(ResponseEntity<Resource> response, Runnable counter) {
+        if (!sendsFirstBytes(response)) return response;
+        try {
+            counter.run();
+        } catch (RuntimeException e) {
+            if (response.getBody() instanceof StorageResource rs) rs.close();
+            throw e;
+        }
+        return response;
+    }
+
+    private static boolean sendsFirstBytes(ResponseEntity<?> response) {
+        if (response.getStatusCode() == HttpStatus.OK) return true;
+        if (response.getStatusCode() != HttpStatus.PARTIAL_CONTENT) return false;
+        String contentRange = response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE);
+        return contentRange != null && contentRange.startsWith("bytes 0-");
+    }
+
+    static ResponseEntity<StreamingResponseBody> zip(ArchiveService archiveService, TransferScheduler transfers,
+                                                     Integer userId, List<File> files, String filename) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentDisposition(ContentDisposition.attachment().filename(filename).build());
+        headers.add(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, "Content-Disposition");
+        TransferScheduler.Ticket ticket;
+        try {
+            ticket = transfers.admit(TransferScheduler.Lane.BULK, userId, null);
+        } catch (TransferRejectedException e) {
+            return busy(e.getRetryAfterSeconds());
+        }
+        StreamingResponseBody body = out -> {
+            try (ticket) {
+                archiveService.writeZip(files, out);
+            }
+        };
+        return ResponseEntity.ok().headers(headers).contentType(MediaType.valueOf("application/zip")).body(body);
+    }
+
+    /**
+     * Inline response for previews, typed with the content type detected at upload when that type is
+     * passive. Uploaded markup such as HTML or SVG would otherwise run as script on the API origin, so
+     * other text is previewed as plain text and anything else is sent as an attachment.
+     */
+    static ResponseEntity<Resource> preview(FileService fileService, TransferScheduler transfers, Integer userId, File file,
+                                            CacheControl cacheControl, HttpHeaders request) throws Exception {
+        MediaType stored = contentTypeOf(file);
+        MediaType contentType = stored;
+        ContentDisposition.Builder disposition = ContentDisposition.inline();
+        if (!isInlineSafe(stored)) {
+            if (ContentTypes.isTextual(stored.getType() + "/" + stored.getSubtype())) {
+                contentType = stored.getCharset() != null
+                        ? new MediaType(MediaType.TEXT_PLAIN, stored.getCharset()) : MediaType.TEXT_PLAIN;
+            } else {
+                disposition = ContentDisposition.attachment();
+            }
+        }
+        HttpHeaders headers = headers(file, disposition, "preview", cacheControl);
+        headers.add(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS,
+                "Content-Type, Content-Disposition, Content-Range, Accept-Ranges, ETag, Last-Modified");
+        return stream(fileService, new Transfer(transfers, userId, file), headers, contentType, request);
+    }
+
+    static ResponseEntity<Resource> download(FileService fileService, TransferScheduler transfers, Integer userId, File file,
+                                             CacheControl cacheControl, HttpHeaders request) throws Exception {
+        HttpHeaders headers = headers(file, ContentDisposition.attachment(), "download", cacheControl);
+        return stream(fileService, new Transfer(transfers, userId, file), headers, contentTypeOf(file), request);
+    }
+
+    /** The stored content type, or the one implied by the name for rows written before detection. */
+    static MediaType contentTypeOf(File file) {
+        String stored = file.getContentType() != null ? file.getContentType() : ContentTypes.byName(file.getName());
+        try {
+            return MediaType.parseMediaType(stored);
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+    }
+
+    /** Types a browser renders inline without running anything from the file on the API origin. */
+    static boolean isInlineSafe(MediaType type) {
+        String value = type.getType() + "/" + type.getSubtype();
+        return switch (type.getType()) {
+            case "image" -> !value.equals("image/svg+xml");
+            case "audio", "video" -> true;
+            default -> INLINE_SAFE.contains(value);
+        };
+    }
+
+    /** When the content was last written: recorded with the content, or the row's creation for older rows. */
+    static Instant lastModifiedOf(File file) {
+        return file.getContentModifiedAt() != null ? file.getContentModifiedAt() : file.getCreatedAt();
+    }
+
+    /**
+     * Strong validator for the representation that will be sent. Content is addressed by its hash,
+     * so the hash is the version; the gzip-encoded form is a different representation of the same
+     * version and gets its own tag. Rows without a hash never get new content in place.
+     */
+    static String etagOf(File file, boolean encodedForm) {
+        String version = file.getContentHash() != null ? file.getContentHash() : "f" + file.getId();
+        return "\"" + version + (encodedForm ? "-" + file.getContentEncoding() : "") + "\"";
+    }
+
+    private static HttpHeaders headers(File file, ContentDisposition.Builder disposition, String fallbackName,
+                                       CacheControl cacheControl) {
+        String filename = file.getName() == null || file.getName().isBlank() ? fallbackName : file.getName();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentDisposition(disposition.filename(filename).build());
+        headers.setCacheControl(cacheControl);
+        headers.set("X-Content-Type-Options", "nosniff");
+        return headers;
+    }
+
+    /**
+     * Answers {@code If-None-Match}/{@code If-Modified-Since} with 304 from the row alone, before
+     * storage is touched, and otherwise streams the content.
+     */
+    private static ResponseEntity<Resource> stream(FileService fileService, Transfer transfer, HttpHeaders headers,
+                                                   MediaType contentType, HttpHeaders request) throws Exception {
+        File file = transfer.file();
+        String acceptEncoding = request.getFirst(HttpHeaders.ACCEPT_ENCODING);
+        boolean encodedForm = file.getContentEncoding() != null && accepts(acceptEncoding, file.getContentEncoding());
+        String etag = etagOf(file, encodedForm);
+        Instant modifiedAt = lastModifiedOf(file);
+        headers.setETag(etag);
+        if (modifiedAt != null) headers.setLastModified(modifiedAt);
+        if (file.getContentEncoding() != null) headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (notModified(request, etag, modifiedAt)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+        try {
+            if (file.getContentEncoding() != null) {
+                return encoded(fileService, transfer, headers, contentType, encodedForm);
+            }
+            return plain(fileService, transfer, headers, contentType, request, etag, modifiedAt);
+        } catch (TransferRejectedException e) {
+            return busy(e.getRetryAfterSeconds());
+        } catch (StorageOverloadedException e) {
+            return busy(e.getRetryAfterSeconds());
+        }
+    }
+
+    private static ResponseEntity<Resource> plain(FileService fileService, Transfer transfer, HttpHeaders headers,
+                                                  MediaType contentType, HttpHeaders request, String etag,
+                                                  Instant modifiedAt) throws Exception {
+        File file = transfer.file();
+        String path = file.getPath();
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        String rangeHeader = request.getFirst(HttpHeaders.RANGE);
+        if (rangeHeader == null || rangeHeader.isBlank()) {
+            return full(fileService, transfer, headers, contentType, false);
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return full(fileService, transfer, headers, contentType, true);
+        }
+        if (ranges.size() != 1) {
+            // Multipart byteranges are not offered; ignoring the header is allowed, refusing it is not.
+            return full(fileService, transfer, headers, contentType, true);
+        }
+
+        String ifRange = request.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.isBlank() && !ifRangeMatches(ifRange, etag, modifiedAt)) {
+            return full(fileService, transfer, headers, contentType, true);
+        }
+
+        long size;
+        if (file.getStoredSize() != null) {
+            size = file.getStoredSize();
+        } else {
+            StorageStat stat = fileService.statRemote(path);
+            if (stat == null) {
+                return ResponseEntity.notFound().build();
+            }
+            size = stat.size();
+        }
+
+        long start;
+        long end;
+        try {
+            start = ranges.get(0).getRangeStart(size);
+            end = ranges.get(0).getRangeEnd(size);
+        } catch (IllegalArgumentException e) {
+            return unsatisfiable(size);
+        }
+        if (size == 0 || start > end) {
+            return unsatisfiable(size);
+        }
+
+        long length = end - start + 1;
+        TransferScheduler.Ticket ticket = transfer.admit(length);
+        StorageResource rs;
+        try {
+            rs = ticket.bind(fileService.getRemoteRange(path, start, length));
+        } catch (Exception e) {
+            ticket.close();
+            throw e;
+        }
+        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        headers.setContentLength(length);
+
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .headers(headers)
+                .contentType(contentType)
+                .body(rs);
+    }
+
+    /** RFC 9110 §13.2.2 order: {@code If-None-Match} (weak comparison) wins over {@code If-Modified-Since}. */
+    private static boolean notModified(HttpHeaders request, String etag, Instant modifiedAt) {
+        List<String> ifNoneMatch = request.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            for (String candidate : ifNoneMatch) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || stripWeak(tag).equals(etag)) return true;
+            }
+            return false;
+        }
+        if (modifiedAt == null) return false;
+        long since = request.getIfModifiedSince();
+        return since >= 0 && modifiedAt.getEpochSecond() <= since / 1000;
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static ResponseEntity<Resource> full(FileService fileService, Transfer transfer, HttpHeaders headers,
+                                                 MediaType contentType, boolean rangeIgnored) throws Exception {
+        File file = transfer.file();
+        TransferScheduler.Ticket ticket = transfer.admit(file.getStoredSize() != null ? file.getStoredSize() : sizeOf(file));
+        StorageResource rs;
+        try {
+            rs = ticket.bind(fileService.openStored(file, ticket));
+        } catch (Exception e) {
+            ticket.close();
+            throw e;
+        }
+        if (rs.length() >= 0) headers.setContentLength(rs.length());
+        // A plain InputStreamResource keeps Spring MVC from applying the ignored Range header itself.
+        Resource body = rangeIgnored ? new InputStreamResource(rs.getInputStream()) : rs;
+        return ResponseEntity.ok()
+                .headers(headers)
+                .contentType(contentType)
+                .body(body);
+    }
+
+    /**
+     * Content stored compressed is sent as-is with {@code Content-Encoding} when the client accepts it,
+     * otherwise decoded on the fly. Byte ranges are not offered since they would address the encoded form.
+     */
+    private static ResponseEntity<Resource> encoded(FileService fileService, Transfer transfer, HttpHeaders headers,
+                                                    MediaType contentType, boolean encodedForm) throws Exception {
+        File file = transfer.file();
+        headers.set(HttpHeaders.ACCEPT_RANGES, "none");
+        TransferScheduler.Ticket ticket = transfer.admit(encodedForm && file.getStoredSize() != null
+                ? file.getStoredSize() : sizeOf(file));
+        Resource body;
+        try {
+            if (encodedForm) {
+                StorageResource rs = fileService.openStored(file, ticket);
+                if (rs.length() >= 0) headers.setContentLength(rs.length());
+                headers.set(HttpHeaders.CONTENT_ENCODING, file.getContentEncoding());
+                body = new InputStreamResource(ticket.bind(rs.getInputStream()));
+            } else {
+                body = new InputStreamResource(ticket.bind(fileService.openContent(file)));
+            }
+        } catch (Exception e) {
+            ticket.close();
+            throw e;
+        }
+        return ResponseEntity.ok()
+                .headers(headers)
+                .contentType(contentType)
+                .body(body);
+    }
+
+    private static long sizeOf(File file) {
+        return file.getSize() == null ? -1L : file.getSize();
+    }
+
+    static <T> ResponseEntity<T> busy(long retryAfterSeconds) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .build();
+    }
+
+    private static boolean accepts(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            if (!tokens[0].trim().equalsIgnoreCase(encoding)) continue;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim().replace(" ", "");
+                if (param.equals("q=0") || param.matches("q=0\\.0*")) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static ResponseEntity<Resource> unsatisfiable(long size) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .build();
+    }
+
+    /** {@code If-Range} needs a strong match: the exact ETag, or the exact Last-Modified second. */
+    private static boolean ifRangeMatches(String ifRange, String etag, Instant modifiedAt) {
+        String value = ifRange.trim();
+        if (value.startsWith("W/")) {
+            return false;
+        }
+        if (value.startsWith("\"")) {
+            return value.equals(etag);
+        }
+        if (modifiedAt == null) return false;
+        try {
+            long since = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return since == modifiedAt.getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /** Who is asking for which file, so the scheduler can pick the lane and apply the caps. */
+    private record Transfer(TransferScheduler scheduler, Integer userId, File file) {
+        TransferScheduler.Ticket admit(long bytes) {
+            Integer poolId = file.getPool() == null ? null : file.getPool().getId();
+            return scheduler.admit(scheduler.laneFor(userId, bytes), userId, poolId);
+        }
+    }
+}
@@ -9,8 +9,11 @@ import org.massine.docsmanagerbackend.models.User;
 import org.massine.docsmanagerbackend.repositories.AccessRepository;
 import org.massine.docsmanagerbackend.repositories.UserRepository;
 import org.massine.docsmanagerbackend.services.AccessService;
+import org.massine.docsmanagerbackend.services.ArchiveService;
 import org.massine.docsmanagerbackend.services.FileService;
 import org.massine.docsmanagerbackend.services.PoolService;
+import org.massine.docsmanagerbackend.services.StorageUsageService;
+import org.massine.docsmanagerbackend.services.TransferScheduler;
 import org.massine.docsmanagerbackend.services.UserService;
 import org.massine.docsmanagerbackend.services.JwtService;
 import org.massine.docsmanagerbackend.services.CookieService;
@@ -19,6 +22,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -36,6 +40,9 @@ public class PoolController {
     private final UserRepository userRepository;
     private final AccessRepository accessRepository;
     private final JwtService jwtService;
+    private final ArchiveService archiveService;
+    private final StorageUsageService storageUsage;
+    private final TransferScheduler transfers;
 
 
     public PoolController(
@@ -45,7 +52,10 @@ public class PoolController {
             CurrentUserProvider currentUser, UserService userService,
             UserRepository userRepository,
             AccessRepository accessRepository,
-            JwtService jwtService
+            JwtService jwtService,
+            ArchiveService archiveService,
+            StorageUsageService storageUsage,
+            TransferScheduler transfers
     ) {
         this.poolService = poolService;
         this.accessService = accessService;
@@ -55,6 +65,9 @@ public class PoolController {
         this.userRepository = userRepository;
         this.accessRepository = accessRepository;
         this.jwtService = jwtService;
+        this.archiveService = archiveService;
+        this.storageUsage = storageUsage;
+        this.transfers = transfers;
     }
 
 
@@ -225,6 +238,13 @@ public class PoolController {
                 .mapToLong(File::getDownloadCount)
                 .sum();
 
+        StorageUsageService.Usage usage = storageUsage.poolUsage(poolId);
+        Map<String, Object> usageStats = new HashMap<>();
+        usageStats.put("bytes", usage.bytes());
+        usageStats.put("files", usage.files());
+        usageStats.put("quotaBytes", storageUsage.poolQuotaBytes());
+        stats.put("usage", usageStats);
+
         stats.put("totalViews", totalViews);
         stats.put("totalDownloads", totalDownloads);
 
@@ -391,6 +411,27 @@ public class PoolController {
         return ResponseEntity.ok(files);
     }
 
+    @GetMapping("/archive/{poolId}")
+    public ResponseEntity<StreamingResponseBody> downloadPoolArchive(@PathVariable int poolId) {
+        User u = currentUser.get();
+
+        Pool pool = poolService.getPoolById(poolId);
+
+        if (pool == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        if (!accessService.userHasAccessToPool(u.getId(), poolId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        List<File> files = fileService.findByPoolId(poolId);
+        if (files.isEmpty()) {
+            return ResponseEntity.noContent().build();
+        }
+        return FileStreamResponses.zip(archiveService, transfers, u.getId(), files, fileService.sanitizeFilename(pool.getName()) + ".zip");
+    }
+
     @GetMapping("/files/count/{poolId}")
     public ResponseEntity<Long> getFilesCountOfPool(@PathVariable int poolId) {
         Pool pool = poolService.getPoolById(poolId);
@@ -398,7 +439,7 @@ public class PoolController {
             return ResponseEntity.notFound().build();
         }
 
-        long count = fileService.findByPoolId(poolId).size();
+        long count = fileService.countByPoolId(poolId);
         return ResponseEntity.ok(count);
     }
 
@@ -33,14 +33,18 @@ public class PublicController {
     private final AccessRepository accessRepository;
     private final JwtService jwtService;
     private final AccessService accessService;
+    private final FileCachePolicy cachePolicy;
+    private final TransferScheduler transfers;
 
-    public PublicController(PoolService poolService, FileService fileService, UserService userService, AccessRepository accessRepository, JwtService jwtService, AccessService accessService) {
+    public PublicController(PoolService poolService, FileService fileService, UserService userService, AccessRepository accessRepository, JwtService jwtService, AccessService accessService, FileCachePolicy cachePolicy, TransferScheduler transfers) {
         this.poolService = poolService;
         this.fileService = fileService;
         this.userService = userService;
         this.accessRepository = accessRepository;
         this.jwtService = jwtService;
         this.accessService = accessService;
+        this.cachePolicy = cachePolicy;
+        this.transfers = transfers;
     }
 
 
@@ -57,7 +61,7 @@ public class PublicController {
                             "name", pool.getName(),
                             "description", pool.getDescription() != null ? pool.getDescription() : "",
                             "createdAt", pool.getCreatedAt(),
-                            "fileCount", fileService.findByPoolId(pool.getId()).size(),
+                            "fileCount", fileService.countByPoolId(pool.getId()),
                             "isPublic", true
                     );
                     return poolData;
@@ -135,7 +139,9 @@ public class PublicController {
 
 
     @GetMapping("/files/download/{fileId}")
-    public ResponseEntity<Resource> downloadPublicFile(@PathVariable int fileId) {
+    public ResponseEntity<Resource> downloadPublicFile(
+            @PathVariable int fileId,
+            @RequestHeader HttpHeaders requestHeaders) {
         File file = fileService.getFileById(fileId);
 
         if (file == null) {
@@ -150,21 +156,8 @@ public class PublicController {
         }
 
         try {
-            fileService.incDownload(fileId);
-
-            FileService.RemoteStream rs = fileService.getRemoteStream(file.getPath());
-            HttpHeaders headers = new HttpHeaders();
-            String filename = file.getName();
-            if (filename == null || filename.isBlank()) {
-                filename = "download";
-            }
-            headers.setContentDisposition(ContentDisposition.attachment().filename(filename).build());
-            if (rs.length() >= 0) headers.setContentLength(rs.length());
-
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(rs);
+            return FileStreamResponses.counted(FileStreamResponses.download(fileService, transfers, null, file, cachePolicy.forPool(file.getPool()), requestHeaders),
+                    () -> fileService.incDownload(fileId));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -172,7 +165,9 @@ public class PublicController {
 
 
     @GetMapping("/files/preview/{fileId}")
-    public ResponseEntity<Resource> previewPublicFile(@PathVariable int fileId) {
+    public ResponseEntity<Resource> previewPublicFile(
+            @PathVariable int fileId,
+            @RequestHeader HttpHeaders requestHeaders) {
         File file = fileService.getFileById(fileId);
 
         if (file == null) {
@@ -187,39 +182,8 @@ public class PublicController {
         }
 
         try {
-            fileService.incView(fileId);
-
-            FileService.RemoteStream rs = fileService.getRemoteStream(file.getPath());
-            String fileName = file.getName();
-            if (fileName == null || fileName.isBlank()) {
-                fileName = "preview";
-            }
-            String lowerFileName = fileName.toLowerCase();
-            MediaType contentType;
-
-            if (lowerFileName.endsWith(".pdf")) contentType = MediaType.APPLICATION_PDF;
-            else if (lowerFileName.endsWith(".jpg") || lowerFileName.endsWith(".jpeg")) contentType = MediaType.IMAGE_JPEG;
-            else if (lowerFileName.endsWith(".png")) contentType = MediaType.IMAGE_PNG;
-            else if (lowerFileName.endsWith(".gif")) contentType = MediaType.IMAGE_GIF;
-            else if (lowerFileName.endsWith(".svg")) contentType = MediaType.valueOf("image/svg+xml");
-            else if (lowerFileName.endsWith(".mp4")) contentType = MediaType.valueOf("video/mp4");
-            else if (lowerFileName.endsWith(".webm")) contentType = MediaType.valueOf("video/webm");
-            else if (lowerFileName.endsWith(".mp3")) contentType = MediaType.valueOf("audio/mpeg");
-            else if (lowerFileName.endsWith(".wav")) contentType = MediaType.valueOf("audio/wav");
-            else if (lowerFileName.endsWith(".txt")) contentType = MediaType.TEXT_PLAIN;
-            else if (lowerFileName.endsWith(".json")) contentType = MediaType.APPLICATION_JSON;
-            else contentType = MediaType.APPLICATION_OCTET_STREAM;
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentDisposition(ContentDisposition.inline().filename(fileName).build());
-            headers.add(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, "Content-Type, Content-Disposition");
-            headers.add(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate");
-            if (rs.length() >= 0) headers.setContentLength(rs.length());
-
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentType(contentType)
-                    .body(rs);
+            return FileStreamResponses.counted(FileStreamResponses.preview(fileService, transfers, null, file, cachePolicy.forPool(file.getPool()), requestHeaders),
+                    () -> fileService.incView(fileId));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
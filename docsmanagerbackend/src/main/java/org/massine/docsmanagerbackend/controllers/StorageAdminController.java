@@ -0,0 +1,100 @@
+package org.massine.docsmanagerbackend.controllers;
+
+import org.massine.docsmanagerbackend.config.CurrentUserProvider;
+import org.massine.docsmanagerbackend.models.File;
+import org.massine.docsmanagerbackend.services.FileService;
+import org.massine.docsmanagerbackend.services.ReconciliationService;
+import org.massine.docsmanagerbackend.services.StorageUsageService;
+import org.massine.docsmanagerbackend.services.TransferScheduler;
+import org.massine.docsmanagerbackend.services.storage.ParallelFetchBenchmark;
+import org.massine.docsmanagerbackend.services.storage.StorageStat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/storage")
+public class StorageAdminController {
+
+    private final ReconciliationService reconciliation;
+    private final StorageUsageService storageUsage;
+    private final TransferScheduler transfers;
+    private final FileService fileService;
+    private final ParallelFetchBenchmark parallelFetchBenchmark;
+    private final CurrentUserProvider currentUser;
+
+    public StorageAdminController(ReconciliationService reconciliation, StorageUsageService storageUsage,
+                                  TransferScheduler transfers, FileService fileService,
+                                  ParallelFetchBenchmark parallelFetchBenchmark, CurrentUserProvider currentUser) {
+        this.reconciliation = reconciliation;
+        this.storageUsage = storageUsage;
+        this.transfers = transfers;
+        this.fileService = fileService;
+        this.parallelFetchBenchmark = parallelFetchBenchmark;
+        this.currentUser = currentUser;
+    }
+
+    @GetMapping("/reconciliation")
+    public ResponseEntity<ReconciliationService.Report> lastReconciliation() {
+        if (!currentUser.isAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        ReconciliationService.Report report = reconciliation.lastReport();
+        return report == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(report);
+    }
+
+    @PostMapping("/reconciliation")
+    public ResponseEntity<Map<String, Object>> startReconciliation(@RequestParam(defaultValue = "false") boolean repair) {
+        if (!currentUser.isAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!reconciliation.start(repair)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "RECONCILIATION_RUNNING"));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("repair", repair));
+    }
+
+    @PostMapping("/usage/recalculate")
+    public ResponseEntity<Void> recalculateUsage() {
+        if (!currentUser.isAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        storageUsage.recalculate();
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/transfers")
+    public ResponseEntity<Map<String, Object>> transfers() {
+        if (!currentUser.isAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(transfers.snapshot());
+    }
+
+    /** Reads one file single-stream and with parallel fetch, alternately, and reports both throughputs. */
+    @PostMapping("/benchmarks/parallel-fetch/{fileId}")
+    public ResponseEntity<?> benchmarkParallelFetch(@PathVariable int fileId, @RequestParam(defaultValue = "3") int runs) {
+        if (!currentUser.isAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        File file = fileService.getFileById(fileId);
+        if (file == null) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            long size;
+            if (file.getStoredSize() != null) {
+                size = file.getStoredSize();
+            } else {
+                StorageStat stat = fileService.statRemote(file.getPath());
+                if (stat == null) return ResponseEntity.notFound().build();
+                size = stat.size();
+            }
+            return ResponseEntity.ok(parallelFetchBenchmark.run(file.getPath(), size, Math.max(1, Math.min(10, runs))));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(Map.of("error", "BENCHMARK_FAILED", "message", String.valueOf(e.getMessage())));
+        }
+    }
+}
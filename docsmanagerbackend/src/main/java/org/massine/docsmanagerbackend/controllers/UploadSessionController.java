@@ -0,0 +1,164 @@
+package org.massine.docsmanagerbackend.controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.massine.docsmanagerbackend.config.CurrentUserProvider;
+import org.massine.docsmanagerbackend.dto.StartUploadRequest;
+import org.massine.docsmanagerbackend.exceptions.QuotaExceededException;
+import org.massine.docsmanagerbackend.models.File;
+import org.massine.docsmanagerbackend.models.Pool;
+import org.massine.docsmanagerbackend.models.UploadSession;
+import org.massine.docsmanagerbackend.models.User;
+import org.massine.docsmanagerbackend.services.AccessService;
+import org.massine.docsmanagerbackend.services.ChunkedUploadService;
+import org.massine.docsmanagerbackend.services.PoolService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Resumable chunked uploads: start a session, PUT numbered chunks (in any order, concurrently),
+ * query the chunks already received, then complete.
+ */
+@RestController
+@RequestMapping("/api/files/uploads")
+public class UploadSessionController {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadSessionController.class);
+
+    private final ChunkedUploadService uploads;
+    private final PoolService poolService;
+    private final AccessService accessService;
+    private final CurrentUserProvider currentUser;
+
+    public UploadSessionController(ChunkedUploadService uploads, PoolService poolService,
+                                   AccessService accessService, CurrentUserProvider currentUser) {
+        this.uploads = uploads;
+        this.poolService = poolService;
+        this.accessService = accessService;
+        this.currentUser = currentUser;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> start(@RequestBody StartUploadRequest req) {
+        User u = currentUser.get();
+        if (req.getPoolId() == null || req.getTotalSize() == null || req.getFileName() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        Pool pool = poolService.getPoolById(req.getPoolId());
+        if (pool == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!accessService.userHasAccessToPool(u.getId(), pool.getId())
+                || !accessService.userCanModifyInPool(u.getId(), pool.getId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        try {
+            LocalDate expiration = (req.getExpirationDate() != null && !req.getExpirationDate().isBlank())
+                    ? LocalDate.parse(req.getExpirationDate()) : null;
+            UploadSession s = uploads.start(pool, u, req.getFileName(), req.getTotalSize(), req.getChunkSize(),
+                    req.getName(), req.getDescription(), expiration);
+            return ResponseEntity.status(HttpStatus.CREATED).body(describe(s, List.of()));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (QuotaExceededException e) {
+            return quotaExceeded(e);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> status(@PathVariable String uploadId) {
+        UploadSession s = ownedSession(uploadId);
+        if (s == null) return ResponseEntity.notFound().build();
+        try {
+            return ResponseEntity.ok(describe(s, uploads.receivedChunks(s)));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+        }
+    }
+
+    @PutMapping("/{uploadId}/chunks/{index:\\d+}")
+    public ResponseEntity<?> putChunk(@PathVariable String uploadId, @PathVariable int index, HttpServletRequest request) {
+        UploadSession s = ownedSession(uploadId);
+        if (s == null) return ResponseEntity.notFound().build();
+        try (InputStream body = request.getInputStream()) {
+            uploads.putChunk(s, index, body);
+            return ResponseEntity.noContent().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Chunk upload failed: uploadId={}, index={}", uploadId, index, e);
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+        }
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> complete(@PathVariable String uploadId) {
+        User u = currentUser.get();
+        UploadSession s = ownedSession(uploadId);
+        if (s == null) return ResponseEntity.notFound().build();
+        if (!accessService.userCanModifyInPool(u.getId(), s.getPool().getId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        try {
+            File created = uploads.complete(s);
+            return ResponseEntity.status(HttpStatus.CREATED).body(created);
+        } catch (QuotaExceededException e) {
+            return quotaExceeded(e);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Upload completion failed: uploadId={}", uploadId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "UPLOAD_FAILED", "detail", String.valueOf(e.getMessage())));
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abort(@PathVariable String uploadId) {
+        UploadSession s = ownedSession(uploadId);
+        if (s == null) return ResponseEntity.notFound().build();
+        try {
+            uploads.abort(s);
+            return ResponseEntity.noContent().build();
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+        }
+    }
+
+    private static ResponseEntity<Map<String, Object>> quotaExceeded(QuotaExceededException e) {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(e.toBody());
+    }
+
+    private UploadSession ownedSession(String uploadId) {
+        User u = currentUser.get();
+        UploadSession s = uploads.find(uploadId);
+        if (s == null || !Objects.equals(s.getUser().getId(), u.getId())) return null;
+        return s;
+    }
+
+    private static Map<String, Object> describe(UploadSession s, List<Integer> received) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("uploadId", s.getId());
+        out.put("status", s.getStatus());
+        out.put("totalSize", s.getTotalSize());
+        out.put("chunkSize", s.getChunkSize());
+        out.put("chunkCount", s.getChunkCount());
+        out.put("received", received);
+        if (s.getFileId() != null) out.put("fileId", s.getFileId());
+        return out;
+    }
+}
@@ -0,0 +1,14 @@
+package org.massine.docsmanagerbackend.dto;
+
+import java.util.List;
+
+public class ArchiveRequest {
+    private List<Integer> fileIds;
+    private String name;
+
+    public List<Integer> getFileIds() { return fileIds; }
+    public void setFileIds(List<Integer> fileIds) { this.fileIds = fileIds; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+}
@@ -0,0 +1,28 @@
+package org.massine.docsmanagerbackend.dto;
+
+public class CreateFromHashRequest {
+    private Integer poolId;
+    private String hash;
+    private String fileName;
+    private String name;
+    private String description;
+    private String expirationDate;
+
+    public Integer getPoolId() { return poolId; }
+    public void setPoolId(Integer poolId) { this.poolId = poolId; }
+
+    public String getHash() { return hash; }
+    public void setHash(String hash) { this.hash = hash; }
+
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public String getDescription() { return description; }
+    public void setDescription(String description) { this.description = description; }
+
+    public String getExpirationDate() { return expirationDate; }
+    public void setExpirationDate(String expirationDate) { this.expirationDate = expirationDate; }
+}
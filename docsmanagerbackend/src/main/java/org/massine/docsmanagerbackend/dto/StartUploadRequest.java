@@ -0,0 +1,32 @@
+package org.massine.docsmanagerbackend.dto;
+
+public class StartUploadRequest {
+    private Integer poolId;
+    private String fileName;
+    private Long totalSize;
+    private Long chunkSize;
+    private String name;
+    private String description;
+    private String expirationDate;
+
+    public Integer getPoolId() { return poolId; }
+    public void setPoolId(Integer poolId) { this.poolId = poolId; }
+
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+
+    public Long getTotalSize() { return totalSize; }
+    public void setTotalSize(Long totalSize) { this.totalSize = totalSize; }
+
+    public Long getChunkSize() { return chunkSize; }
+    public void setChunkSize(Long chunkSize) { this.chunkSize = chunkSize; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public String getDescription() { return description; }
+    public void setDescription(String description) { this.description = description; }
+
+    public String getExpirationDate() { return expirationDate; }
+    public void setExpirationDate(String expirationDate) { this.expirationDate = expirationDate; }
+}
@@ -0,0 +1,35 @@
+package org.massine.docsmanagerbackend.exceptions;
+
+import java.util.Map;
+
+/**
+ * Thrown when storing more content would take a pool or a user over its configured quota.
+ */
+public class QuotaExceededException extends RuntimeException {
+    private final String scope;
+    private final long limit;
+    private final long used;
+
+    public QuotaExceededException(String scope, long limit, long used) {
+        super("QUOTA_EXCEEDED scope=" + scope + " limit=" + limit + " used=" + used);
+        this.scope = scope;
+        this.limit = limit;
+        this.used = used;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getUsed() {
+        return used;
+    }
+
+    public Map<String, Object> toBody() {
+        return Map.of("error", "QUOTA_EXCEEDED", "scope", scope, "limit", limit, "used", used);
+    }
+}
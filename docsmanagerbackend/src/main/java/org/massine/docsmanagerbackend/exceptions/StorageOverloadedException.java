@@ -0,0 +1,24 @@
+package org.massine.docsmanagerbackend.exceptions;
+
+/**
+ * Thrown when a storage read is turned away because as many are already in flight as the
+ * adaptive limit allows. Answered with 503 and {@code Retry-After}.
+ */
+public class StorageOverloadedException extends RuntimeException {
+    private final int limit;
+    private final long retryAfterSeconds;
+
+    public StorageOverloadedException(int limit, long retryAfterSeconds) {
+        super("STORAGE_OVERLOADED limit=" + limit);
+        this.limit = limit;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
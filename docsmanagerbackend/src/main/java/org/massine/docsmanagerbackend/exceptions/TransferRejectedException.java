@@ -0,0 +1,24 @@
+package org.massine.docsmanagerbackend.exceptions;
+
+/**
+ * Thrown when a transfer cannot be admitted to storage, either because too many are already
+ * queued or because none of the slots came free in time. Answered with 503 and {@code Retry-After}.
+ */
+public class TransferRejectedException extends RuntimeException {
+    private final String reason;
+    private final long retryAfterSeconds;
+
+    public TransferRejectedException(String reason, long retryAfterSeconds) {
+        super("TRANSFER_REJECTED reason=" + reason);
+        this.reason = reason;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
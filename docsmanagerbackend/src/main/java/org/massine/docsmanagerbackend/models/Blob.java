@@ -0,0 +1,80 @@
+package org.massine.docsmanagerbackend.models;
+
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Instant;
+
+/**
+ * Content-addressed object shared by every {@link File} with the same SHA-256.
+ * The remote object is removed once {@code refCount} drops to zero.
+ */
+@Entity
+@Table(name = "content_blob")
+public class Blob implements Persistable<String> {
+    @Id
+    @Column(name = "hash", nullable = false, length = 64)
+    private String hash;
+
+    @Column(name = "path", nullable = false, length = 1024)
+    private String path;
+
+    @Column(name = "size", nullable = false)
+    private long size;
+
+    @Column(name = "stored_size")
+    private Long storedSize;
+
+    @Column(name = "encoding", length = 16)
+    private String encoding;
+
+    @Column(name = "ref_count", nullable = false)
+    private long refCount;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private Instant createdAt;
+
+    @Transient
+    private boolean isNew;
+
+    protected Blob() {
+    }
+
+    public static Blob create(String hash, String path, long size, long storedSize, String encoding) {
+        Blob b = new Blob();
+        b.hash = hash;
+        b.path = path;
+        b.size = size;
+        b.storedSize = storedSize;
+        b.encoding = encoding;
+        b.refCount = 1;
+        b.createdAt = Instant.now();
+        b.isNew = true;
+        return b;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() { this.isNew = false; }
+
+    @Override
+    public String getId() { return hash; }
+
+    @Override
+    public boolean isNew() { return isNew; }
+
+    public String getHash() { return hash; }
+
+    public String getPath() { return path; }
+
+    public long getSize() { return size; }
+
+    public long getStoredSize() { return storedSize != null ? storedSize : size; }
+
+    public String getEncoding() { return encoding; }
+
+    public long getRefCount() { return refCount; }
+    public void setRefCount(long refCount) { this.refCount = refCount; }
+
+    public Instant getCreatedAt() { return createdAt; }
+}
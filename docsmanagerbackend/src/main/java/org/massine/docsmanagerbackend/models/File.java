@@ -1,5 +1,6 @@
 package org.massine.docsmanagerbackend.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
@@ -11,7 +12,9 @@ import java.time.LocalDate;
 @Entity
 @Table(name = "file", indexes = {
         @Index(name = "idx_file_pool", columnList = "pool_id"),
-        @Index(name = "idx_file_uploader", columnList = "uploaded_by")
+        @Index(name = "idx_file_uploader", columnList = "uploaded_by"),
+        @Index(name = "idx_file_content_hash", columnList = "content_hash"),
+        @Index(name = "idx_file_expiration", columnList = "expiration_date")
 })
 public class File {
     @Id
@@ -46,12 +49,41 @@ public class File {
     @Column(name = "expiration_date")
     private LocalDate expirationDate;
 
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "size")
+    private Long size;
+
+    @Column(name = "content_type", length = 255)
+    private String contentType;
+
+    @Column(name = "stored_size")
+    private Long storedSize;
+
+    @Column(name = "content_modified_at")
+    private Instant contentModifiedAt;
+
+    @Column(name = "content_encoding", length = 16)
+    private String contentEncoding;
+
+    @Column(name = "compression_ratio")
+    private Double compressionRatio;
+
+    @Column(name = "rendition_state", length = 16)
+    private String renditionState;
+
     @Column(name = "download_count", nullable = false)
     private long downloadCount = 0L;
 
     @Column(name = "view_count", nullable = false)
     private long viewCount = 0L;
 
+    /** Id of the background upload that created the row, so a job replayed after a restart finds it. */
+    @JsonIgnore
+    @Column(name = "upload_id", length = 36, unique = true)
+    private String uploadId;
+
     public long getDownloadCount() { return downloadCount; }
     public void setDownloadCount(long downloadCount) { this.downloadCount = downloadCount; }
     public long getViewCount() { return viewCount; }
@@ -81,4 +113,31 @@ public class File {
 
     public LocalDate getExpirationDate() { return expirationDate; }
     public void setExpirationDate(LocalDate expirationDate) { this.expirationDate = expirationDate; }
+
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+
+    public Long getSize() { return size; }
+    public void setSize(Long size) { this.size = size; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public Long getStoredSize() { return storedSize; }
+    public void setStoredSize(Long storedSize) { this.storedSize = storedSize; }
+
+    public Instant getContentModifiedAt() { return contentModifiedAt; }
+    public void setContentModifiedAt(Instant contentModifiedAt) { this.contentModifiedAt = contentModifiedAt; }
+
+    public String getContentEncoding() { return contentEncoding; }
+    public void setContentEncoding(String contentEncoding) { this.contentEncoding = contentEncoding; }
+
+    public Double getCompressionRatio() { return compressionRatio; }
+    public void setCompressionRatio(Double compressionRatio) { this.compressionRatio = compressionRatio; }
+
+    public String getRenditionState() { return renditionState; }
+    public void setRenditionState(String renditionState) { this.renditionState = renditionState; }
+
+    public String getUploadId() { return uploadId; }
+    public void setUploadId(String uploadId) { this.uploadId = uploadId; }
 }
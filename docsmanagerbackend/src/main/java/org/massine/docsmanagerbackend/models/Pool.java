@@ -1,5 +1,6 @@
 package org.massine.docsmanagerbackend.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import org.hibernate.annotations.ColumnDefault;
@@ -60,6 +61,14 @@ public class Pool {
         this.createdAt = createdAt;
     }
 
+    public Instant getDeletedAt() {
+        return deletedAt;
+    }
+
+    public void setDeletedAt(Instant deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+
     public Boolean getPublicAccess() {
         return publicAccess;
     }
@@ -68,6 +77,14 @@ public class Pool {
         this.publicAccess = publicAccess;
     }
 
+    public Integer getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public void setCacheMaxAge(Integer cacheMaxAge) {
+        this.cacheMaxAge = cacheMaxAge;
+    }
+
     @Column(name = "description", length = 10000)
     private String description;
 
@@ -80,5 +97,13 @@ public class Pool {
 
     @Column(name = "public_access", nullable = false)
     private Boolean publicAccess = false;
+
+    /** Seconds clients may reuse file content without revalidating; {@code null} uses the default for the pool's visibility. */
+    @Column(name = "cache_max_age")
+    private Integer cacheMaxAge;
+
+    @JsonIgnore
+    @Column(name = "deleted_at")
+    private Instant deletedAt;
     // getters/setters identiques
 }
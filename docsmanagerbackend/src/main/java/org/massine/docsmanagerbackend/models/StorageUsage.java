@@ -0,0 +1,29 @@
+package org.massine.docsmanagerbackend.models;
+
+import jakarta.persistence.*;
+
+/**
+ * Running byte and file totals for one pool ({@code pool:<id>}) or one uploader ({@code user:<id>}),
+ * kept up to date in the same transaction as the file rows they count.
+ */
+@Entity
+@Table(name = "storage_usage")
+public class StorageUsage {
+    @Id
+    @Column(name = "id", nullable = false, length = 32)
+    private String id;
+
+    @Column(name = "bytes", nullable = false)
+    private long bytes;
+
+    @Column(name = "files", nullable = false)
+    private long files;
+
+    public static String poolKey(int poolId) { return "pool:" + poolId; }
+
+    public static String userKey(int userId) { return "user:" + userId; }
+
+    public String getId() { return id; }
+    public long getBytes() { return bytes; }
+    public long getFiles() { return files; }
+}
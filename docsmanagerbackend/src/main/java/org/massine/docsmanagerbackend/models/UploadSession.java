@@ -0,0 +1,103 @@
+package org.massine.docsmanagerbackend.models;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+@Entity
+@Table(name = "upload_session", indexes = {
+        @Index(name = "idx_upload_session_updated", columnList = "updated_at")
+})
+public class UploadSession {
+    public static final String OPEN = "open";
+    public static final String COMPLETING = "completing";
+    public static final String COMPLETED = "completed";
+
+    @Id
+    @Column(name = "id", nullable = false, length = 36)
+    private String id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "pool_id", referencedColumnName = "id", nullable = false)
+    private Pool pool;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", referencedColumnName = "id", nullable = false)
+    private User user;
+
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+
+    @Column(name = "display_name")
+    private String displayName;
+
+    @Column(name = "description", length = 10000)
+    private String description;
+
+    @Column(name = "expiration_date")
+    private LocalDate expirationDate;
+
+    @Column(name = "total_size", nullable = false)
+    private long totalSize;
+
+    @Column(name = "chunk_size", nullable = false)
+    private long chunkSize;
+
+    @Column(name = "chunk_count", nullable = false)
+    private int chunkCount;
+
+    @Column(name = "status", nullable = false, length = 16)
+    private String status = OPEN;
+
+    @Column(name = "file_id")
+    private Integer fileId;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private Instant createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public Pool getPool() { return pool; }
+    public void setPool(Pool pool) { this.pool = pool; }
+
+    public User getUser() { return user; }
+    public void setUser(User user) { this.user = user; }
+
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+
+    public String getDisplayName() { return displayName; }
+    public void setDisplayName(String displayName) { this.displayName = displayName; }
+
+    public String getDescription() { return description; }
+    public void setDescription(String description) { this.description = description; }
+
+    public LocalDate getExpirationDate() { return expirationDate; }
+    public void setExpirationDate(LocalDate expirationDate) { this.expirationDate = expirationDate; }
+
+    public long getTotalSize() { return totalSize; }
+    public void setTotalSize(long totalSize) { this.totalSize = totalSize; }
+
+    public long getChunkSize() { return chunkSize; }
+    public void setChunkSize(long chunkSize) { this.chunkSize = chunkSize; }
+
+    public int getChunkCount() { return chunkCount; }
+    public void setChunkCount(int chunkCount) { this.chunkCount = chunkCount; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public Integer getFileId() { return fileId; }
+    public void setFileId(Integer fileId) { this.fileId = fileId; }
+
+    public Instant getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+
+    public Instant getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -5,6 +5,7 @@ import org.massine.docsmanagerbackend.models.Pool;
 import org.massine.docsmanagerbackend.models.User;
 import jakarta.annotation.Nonnull;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -36,5 +37,9 @@ public interface AccessRepository extends JpaRepository<Access, Integer> {
 
 
     List<Access> findByPoolId(int poolId);
+
+    @Modifying
+    @Query("DELETE FROM Access a WHERE a.pool.id = :poolId")
+    int deleteAllByPoolId(@Param("poolId") int poolId);
 }
 
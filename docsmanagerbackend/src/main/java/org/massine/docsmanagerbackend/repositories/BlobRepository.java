@@ -0,0 +1,40 @@
+package org.massine.docsmanagerbackend.repositories;
+
+import jakarta.persistence.LockModeType;
+import org.massine.docsmanagerbackend.models.Blob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface BlobRepository extends JpaRepository<Blob, String> {
+
+    @Modifying(flushAutomatically = true, clearAutomatically = false)
+    @Query("update Blob b set b.refCount = b.refCount + 1 where b.hash = :hash")
+    int incrementRef(@Param("hash") String hash);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from Blob b where b.hash = :hash")
+    Optional<Blob> lockByHash(@Param("hash") String hash);
+
+    boolean existsByPath(String path);
+
+    @Query("select b.hash from Blob b where b.refCount <= 0")
+    List<String> findUnreferenced(Pageable page);
+
+    /** Drops the references held by every file of a pool in one statement. */
+    @Modifying
+    @Query(value = "UPDATE content_blob b JOIN (SELECT content_hash, COUNT(*) AS n FROM file "
+            + "WHERE pool_id = :poolId AND content_hash IS NOT NULL GROUP BY content_hash) r "
+            + "ON r.content_hash = b.hash SET b.ref_count = b.ref_count - r.n", nativeQuery = true)
+    int releasePoolReferences(@Param("poolId") int poolId);
+
+    Optional<Blob> findByPath(String path);
+}
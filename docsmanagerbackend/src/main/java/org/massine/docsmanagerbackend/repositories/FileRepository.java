@@ -1,16 +1,24 @@
 package org.massine.docsmanagerbackend.repositories;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.massine.docsmanagerbackend.models.File;
 import org.massine.docsmanagerbackend.models.Pool;
 import org.massine.docsmanagerbackend.models.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface FileRepository extends JpaRepository<File, Integer> {
@@ -32,6 +40,99 @@ public interface FileRepository extends JpaRepository<File, Integer> {
 
     List<File> findByPoolId(int poolId);
 
+    @Query("SELECT f FROM File f WHERE f.pool.id = :poolId AND (f.expirationDate IS NULL OR f.expirationDate >= :today)")
+    List<File> findLiveByPoolId(@Param("poolId") int poolId, @Param("today") LocalDate today);
+
+    @Query("SELECT f FROM File f WHERE f.expirationDate IS NULL OR f.expirationDate >= :today")
+    List<File> findAllLive(@Param("today") LocalDate today);
+
+    @Query("SELECT COUNT(f) FROM File f WHERE f.expirationDate IS NULL OR f.expirationDate >= :today")
+    long countLive(@Param("today") LocalDate today);
+
+    @Query("SELECT COUNT(f) FROM File f WHERE f.pool.id = :poolId AND (f.expirationDate IS NULL OR f.expirationDate >= :today)")
+    long countLiveByPoolId(@Param("poolId") int poolId, @Param("today") LocalDate today);
+
+    interface ContentRef {
+        Integer getId();
+        String getContentHash();
+        String getPath();
+        Integer getPoolId();
+        Integer getUploaderId();
+        Long getSize();
+    }
+
+    /** Keyset page of expired files, ordered by id, after {@code afterId}. */
+    @Query("SELECT f.id AS id, f.contentHash AS contentHash, f.path AS path, f.pool.id AS poolId, "
+            + "f.userUploader.id AS uploaderId, f.size AS size FROM File f "
+            + "WHERE f.expirationDate < :today AND f.id > :afterId ORDER BY f.id")
+    List<ContentRef> findExpired(@Param("today") LocalDate today, @Param("afterId") int afterId, Pageable page);
+
+    /**
+     * Locks those of {@code ids} that are still expired and returns their current content, so that
+     * a row extended or given new content since {@link #findExpired} was read is left alone.
+     */
+    @Query(value = "SELECT id AS id, content_hash AS contentHash, path AS path, pool_id AS poolId, "
+            + "uploaded_by AS uploaderId, size AS size FROM file "
+            + "WHERE id IN (:ids) AND expiration_date < :today ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<ContentRef> lockExpired(@Param("ids") Collection<Integer> ids, @Param("today") LocalDate today);
+
+    interface StoredMetadata {
+        Integer getId();
+        String getName();
+        String getPath();
+        Integer getPoolId();
+        Integer getUploaderId();
+        Long getSize();
+        Long getStoredSize();
+        String getContentEncoding();
+        String getContentType();
+        Instant getContentModifiedAt();
+    }
+
+    /** Keyset page of the stored metadata of every file, ordered by id, after {@code afterId}. */
+    @Query("SELECT f.id AS id, f.name AS name, f.path AS path, f.pool.id AS poolId, f.userUploader.id AS uploaderId, "
+            + "f.size AS size, f.storedSize AS storedSize, f.contentEncoding AS contentEncoding, "
+            + "f.contentType AS contentType, f.contentModifiedAt AS contentModifiedAt FROM File f "
+            + "WHERE f.id > :afterId ORDER BY f.id")
+    List<StoredMetadata> findStoredMetadata(@Param("afterId") int afterId, Pageable page);
+
+    @Modifying
+    @Query("update File f set f.size = :size, f.storedSize = :storedSize, f.contentType = :contentType, "
+            + "f.contentModifiedAt = :modifiedAt where f.id = :id and f.path = :path")
+    int updateStoredMetadata(@Param("id") int id, @Param("path") String path, @Param("size") Long size,
+                             @Param("storedSize") long storedSize, @Param("contentType") String contentType,
+                             @Param("modifiedAt") Instant modifiedAt);
+
+    /**
+     * Every stored path referenced by a file or blob row created before {@code cutoff}, in binary order
+     * so that it lines up with a sorted storage walk. MySQL streams the rows instead of buffering them.
+     */
+    @Query(value = "SELECT path FROM file WHERE created_at < :cutoff "
+            + "UNION SELECT path FROM content_blob WHERE created_at < :cutoff "
+            + "ORDER BY path COLLATE utf8mb4_bin", nativeQuery = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    Stream<String> streamReferencedPaths(@Param("cutoff") Instant cutoff);
+
+    List<File> findByPath(String path);
+
+    boolean existsByPath(String path);
+
+    Optional<File> findByUploadId(String uploadId);
+
+    @Modifying
+    @Query("DELETE FROM File f WHERE f.pool.id = :poolId")
+    int deleteAllByPoolId(@Param("poolId") int poolId);
+
+    @Modifying
+    @Query("DELETE FROM File f WHERE f.id IN :ids")
+    int deleteAllByIdIn(@Param("ids") Collection<Integer> ids);
+
+    boolean existsByContentHashAndPoolIdIn(String contentHash, Collection<Integer> poolIds);
+
+    @Modifying
+    @Query("update File f set f.renditionState = :state where f.id = :id and f.path = :path")
+    int updateRenditionState(@Param("id") int id, @Param("path") String path, @Param("state") String state);
+
         @Modifying(flushAutomatically = true, clearAutomatically = false)
         @Query("update File f set f.downloadCount = f.downloadCount + 1 where f.id = :id")
         int incrementDownload(@Param("id") int id);
@@ -3,8 +3,12 @@ package org.massine.docsmanagerbackend.repositories;
 import org.massine.docsmanagerbackend.models.Pool;
 import jakarta.annotation.Nonnull;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.List;
 
 @Repository
@@ -13,4 +17,16 @@ public interface PoolRepository extends JpaRepository<Pool, Integer> {
     List<Pool> findAll();
     Pool findById(int id);
     List<Pool> findByCreatedBy(Integer createdBy);
+
+    List<Pool> findByDeletedAtIsNull();
+
+    Pool findByIdAndDeletedAtIsNull(int id);
+
+    long countByDeletedAtIsNull();
+
+    List<Pool> findByDeletedAtIsNotNull();
+
+    @Modifying
+    @Query("update Pool p set p.deletedAt = :now where p.id = :id and p.deletedAt is null")
+    int tombstone(@Param("id") int id, @Param("now") Instant now);
 }
@@ -0,0 +1,42 @@
+package org.massine.docsmanagerbackend.repositories;
+
+import org.massine.docsmanagerbackend.models.StorageUsage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface StorageUsageRepository extends JpaRepository<StorageUsage, String> {
+
+    @Modifying
+    @Query(value = "INSERT INTO storage_usage (id, bytes, files) VALUES (:id, :bytes, :files) "
+            + "ON DUPLICATE KEY UPDATE bytes = bytes + VALUES(bytes), files = files + VALUES(files)", nativeQuery = true)
+    int add(@Param("id") String id, @Param("bytes") long bytes, @Param("files") long files);
+
+    /** Subtracts what the files of a pool count towards their uploaders, ahead of a bulk delete. */
+    @Modifying
+    @Query(value = "UPDATE storage_usage u JOIN (SELECT CONCAT('user:', uploaded_by) AS id, "
+            + "COALESCE(SUM(size), 0) AS b, COUNT(*) AS n FROM file WHERE pool_id = :poolId GROUP BY uploaded_by) r "
+            + "ON u.id = r.id SET u.bytes = u.bytes - r.b, u.files = u.files - r.n", nativeQuery = true)
+    int releasePoolFromUsers(@Param("poolId") int poolId);
+
+    @Modifying
+    @Query(value = "DELETE FROM storage_usage WHERE id = :id", nativeQuery = true)
+    int remove(@Param("id") String id);
+
+    @Modifying
+    @Query(value = "DELETE FROM storage_usage", nativeQuery = true)
+    int clear();
+
+    @Modifying
+    @Query(value = "INSERT INTO storage_usage (id, bytes, files) "
+            + "SELECT CONCAT('pool:', pool_id), COALESCE(SUM(size), 0), COUNT(*) FROM file GROUP BY pool_id", nativeQuery = true)
+    int rebuildPools();
+
+    @Modifying
+    @Query(value = "INSERT INTO storage_usage (id, bytes, files) "
+            + "SELECT CONCAT('user:', uploaded_by), COALESCE(SUM(size), 0), COUNT(*) FROM file GROUP BY uploaded_by", nativeQuery = true)
+    int rebuildUsers();
+}
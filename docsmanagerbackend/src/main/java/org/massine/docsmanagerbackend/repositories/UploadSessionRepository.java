@@ -0,0 +1,27 @@
+package org.massine.docsmanagerbackend.repositories;
+
+import org.massine.docsmanagerbackend.models.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    @Modifying(flushAutomatically = true, clearAutomatically = false)
+    @Query("update UploadSession s set s.status = :to, s.updatedAt = :now where s.id = :id and s.status = :from")
+    int transition(@Param("id") String id, @Param("from") String from, @Param("to") String to, @Param("now") Instant now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = false)
+    @Query("update UploadSession s set s.updatedAt = :now where s.id = :id")
+    int touch(@Param("id") String id, @Param("now") Instant now);
+
+    List<UploadSession> findTop100ByUpdatedAtBefore(Instant before);
+
+    List<UploadSession> findByPoolId(int poolId);
+}
@@ -0,0 +1,112 @@
+package org.massine.docsmanagerbackend.services;
+
+import jakarta.annotation.PreDestroy;
+import org.massine.docsmanagerbackend.models.File;
+import org.massine.docsmanagerbackend.services.storage.StorageResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds ZIP archives on the fly. Entries are copied straight from storage into the response
+ * while the next entry is already being opened, so at most two objects are open per archive
+ * and nothing is buffered beyond the copy buffer.
+ */
+@Service
+public class ArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveService.class);
+
+    private final FileService fileService;
+    private final ExecutorService readAhead;
+
+    public ArchiveService(FileService fileService) {
+        this.fileService = fileService;
+        AtomicInteger seq = new AtomicInteger();
+        this.readAhead = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "archive-read-ahead-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void writeZip(List<File> files, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(Deflater.BEST_SPEED);
+        Set<String> usedNames = new HashSet<>();
+
+        CompletableFuture<StorageResource> next = files.isEmpty() ? null : open(files.get(0));
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                File file = files.get(i);
+                StorageResource current = await(next, file);
+                next = (i + 1 < files.size()) ? open(files.get(i + 1)) : null;
+
+                try (current; InputStream in = fileService.decode(file, current.getInputStream())) {
+                    ZipEntry entry = new ZipEntry(uniqueName(file.getName(), usedNames));
+                    if (file.getCreatedAt() != null) entry.setLastModifiedTime(FileTime.from(file.getCreatedAt()));
+                    zip.putNextEntry(entry);
+                    in.transferTo(zip);
+                    zip.closeEntry();
+                }
+                fileService.incDownload(file.getId());
+            }
+            zip.finish();
+            zip.flush();
+        } finally {
+            if (next != null) next.whenComplete((r, e) -> { if (r != null) r.close(); });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        readAhead.shutdownNow();
+    }
+
+    private CompletableFuture<StorageResource> open(File file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return fileService.openStored(file, false);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, readAhead);
+    }
+
+    private static StorageResource await(CompletableFuture<StorageResource> pending, File file) throws IOException {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            log.warn("Archive entry unavailable id={} path={}", file.getId(), file.getPath(), e.getCause());
+            throw new IOException("Archive entry unavailable: " + file.getId(), e.getCause());
+        }
+    }
+
+    private static String uniqueName(String name, Set<String> used) {
+        String base = (name == null || name.isBlank()) ? "file" : name.replace('\\', '_').replace('/', '_');
+        if (used.add(base)) return base;
+        int dot = base.lastIndexOf('.');
+        String stem = dot > 0 ? base.substring(0, dot) : base;
+        String ext = dot > 0 ? base.substring(dot) : "";
+        for (int n = 2; ; n++) {
+            String candidate = stem + " (" + n + ")" + ext;
+            if (used.add(candidate)) return candidate;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package org.massine.docsmanagerbackend.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.exceptions.QuotaExceededException;
+import org.massine.docsmanagerbackend.models.File;
+import org.massine.docsmanagerbackend.models.Pool;
+import org.massine.docsmanagerbackend.models.User;
+import org.massine.docsmanagerbackend.services.BlobService.StoredBlob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Background upload pipeline: request bodies are staged on local disk and acknowledged right away,
+ * then pushed to storage by a bounded worker pool. Each staged upload has a JSON manifest next to
+ * its bytes so that pending jobs are picked up again after a restart; the file row carries the job
+ * id, so a job replayed after its row was committed completes without a second row. Failed transfers
+ * are retried with exponential backoff up to {@code storage.async-upload.max-attempts}.
+ */
+@Service
+public class AsyncUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncUploadService.class);
+
+    public enum Status { QUEUED, UPLOADING, DONE, FAILED }
+
+    public record Manifest(String id, int poolId, int userId, String originalName, String name, String description,
+                           LocalDate expirationDate, long size, Status status, int attempts, Integer fileId,
+                           String error, Instant createdAt, Instant updatedAt) {
+
+        Manifest with(Status status, int attempts, Integer fileId, String error) {
+            return new Manifest(id, poolId, userId, originalName, name, description, expirationDate, size,
+                    status, attempts, fileId, error, createdAt, Instant.now());
+        }
+    }
+
+    public static final class Job {
+        private volatile Manifest manifest;
+        private final AtomicLong transferred = new AtomicLong();
+
+        private Job(Manifest manifest) {
+            this.manifest = manifest;
+        }
+
+        public Manifest manifest() { return manifest; }
+
+        public long transferred() {
+            return manifest.status() == Status.DONE ? manifest.size() : transferred.get();
+        }
+    }
+
+    private final FileService fileService;
+    private final RenditionService renditions;
+    private final PoolService poolService;
+    private final UserService userService;
+    private final ObjectMapper objectMapper;
+    private final StorageConfig.AsyncUpload settings;
+    private final Path stagingDir;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService retries;
+
+    public AsyncUploadService(FileService fileService, RenditionService renditions, PoolService poolService,
+                              UserService userService, ObjectMapper objectMapper, StorageConfig storageConfig) {
+        this.fileService = fileService;
+        this.renditions = renditions;
+        this.poolService = poolService;
+        this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.settings = storageConfig.getAsyncUpload();
+        this.stagingDir = Path.of(settings.getStagingDirectory()).toAbsolutePath().normalize();
+
+        AtomicInteger seq = new AtomicInteger();
+        int threads = Math.max(1, settings.getWorkers());
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, settings.getQueueCapacity())), r -> {
+                    Thread t = new Thread(r, "async-upload-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "async-upload-retry");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Stages the upload locally and queues it; throws {@link RejectedExecutionException} when the queue is full. */
+    public Job submit(Pool pool, User user, MultipartFile file, String name, String description,
+                      LocalDate expirationDate) throws IOException {
+        if (workers.getQueue().remainingCapacity() == 0) {
+            throw new RejectedExecutionException("ASYNC_UPLOAD_QUEUE_FULL");
+        }
+        Files.createDirectories(stagingDir);
+        String id = UUID.randomUUID().toString();
+        Path data = dataPath(id);
+        file.transferTo(data.toFile());
+
+        Instant now = Instant.now();
+        Manifest m = new Manifest(id, pool.getId(), user.getId(), file.getOriginalFilename(), name, description,
+                expirationDate, Files.size(data), Status.QUEUED, 0, null, null, now, now);
+        Job job = new Job(m);
+        try {
+            writeManifest(m);
+            jobs.put(id, job);
+            workers.execute(() -> run(job));
+            return job;
+        } catch (IOException | RuntimeException e) {
+            jobs.remove(id);
+            Files.deleteIfExists(data);
+            Files.deleteIfExists(manifestPath(id));
+            throw e;
+        }
+    }
+
+    public Job find(String id) {
+        return jobs.get(id);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        if (!Files.isDirectory(stagingDir)) return;
+        try (Stream<Path> entries = Files.list(stagingDir)) {
+            for (Path p : (Iterable<Path>) entries::iterator) {
+                if (!p.getFileName().toString().endsWith(".json")) continue;
+                try {
+                    Manifest m = objectMapper.readValue(p.toFile(), Manifest.class);
+                    Job job = new Job(m);
+                    jobs.put(m.id(), job);
+                    if (m.status() == Status.QUEUED || m.status() == Status.UPLOADING) {
+                        if (Files.exists(dataPath(m.id()))) {
+                            enqueue(job);
+                        } else {
+                            update(job, m.with(Status.FAILED, m.attempts(), null, "STAGED_DATA_MISSING"));
+                        }
+                    }
+                } catch (Exception e) {
+                    log.warn("Skipping unreadable upload manifest {}", p, e);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not scan upload staging directory {}", stagingDir, e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${storage.async-upload.cleanup-interval:PT1H}")
+    public void purgeFinished() {
+        Instant cutoff = Instant.now().minus(settings.getRetention());
+        for (Job job : List.copyOf(jobs.values())) {
+            Manifest m = job.manifest;
+            boolean finished = m.status() == Status.DONE || m.status() == Status.FAILED;
+            if (!finished || m.updatedAt().isAfter(cutoff)) continue;
+            jobs.remove(m.id());
+            try {
+                Files.deleteIfExists(dataPath(m.id()));
+                Files.deleteIfExists(manifestPath(m.id()));
+            } catch (IOException e) {
+                log.warn("Could not remove staged upload id={}", m.id(), e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retries.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void enqueue(Job job) {
+        try {
+            workers.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            if (!retries.isShutdown()) {
+                retries.schedule(() -> enqueue(job), settings.getInitialBackoff().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void run(Job job) {
+        Manifest m = job.manifest;
+        int attempt = m.attempts() + 1;
+        update(job, m.with(Status.UPLOADING, attempt, null, null));
+        job.transferred.set(0);
+
+        StoredBlob stored = null;
+        File saved = null;
+        try {
+            // A restart between committing the row and recording DONE replays the job; the row is the outcome.
+            File existing = fileService.findByUploadId(m.id());
+            if (existing != null) {
+                renditions.schedule(existing);
+                complete(job, attempt, existing);
+                return;
+            }
+
+            Pool pool = poolService.getPoolById(m.poolId());
+            if (pool == null) {
+                fail(job, attempt, "POOL_NOT_FOUND");
+                return;
+            }
+            User user = userService.findById(m.userId());
+
+            try (InputStream in = new ProgressInputStream(Files.newInputStream(dataPath(m.id())), job.transferred)) {
+                stored = fileService.storeContent(in, m.originalName());
+            }
+
+            File f = fileService.newFileRecord(pool, user, m.name(), m.originalName(),
+                    fileService.sanitizeFilename(m.originalName()), m.description());
+            fileService.applyContent(f, stored);
+            f.setExpirationDate(m.expirationDate());
+            f.setUploadId(m.id());
+            saved = fileService.saveFile(f);
+            renditions.schedule(saved);
+            complete(job, attempt, saved);
+        } catch (Exception e) {
+            if (stored != null && saved == null) {
+                try {
+                    fileService.releaseContent(stored.hash(), stored.key());
+                } catch (Exception ignore) {
+                }
+            }
+            if (job.manifest.status() == Status.DONE) {
+                log.warn("Upload id={} stored but staging cleanup failed", m.id(), e);
+                return;
+            }
+            if (e instanceof QuotaExceededException) {
+                fail(job, attempt, e.getMessage());
+                return;
+            }
+            if (attempt >= settings.getMaxAttempts()) {
+                log.error("Upload id={} failed after {} attempts", m.id(), attempt, e);
+                fail(job, attempt, String.valueOf(e.getMessage()));
+                return;
+            }
+            Duration backoff = backoff(attempt);
+            log.warn("Upload id={} attempt {} failed, retrying in {}", m.id(), attempt, backoff, e);
+            update(job, job.manifest.with(Status.QUEUED, attempt, null, String.valueOf(e.getMessage())));
+            if (!retries.isShutdown()) {
+                retries.schedule(() -> enqueue(job), backoff.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void complete(Job job, int attempt, File saved) throws IOException {
+        update(job, job.manifest.with(Status.DONE, attempt, saved.getId(), null));
+        Files.deleteIfExists(dataPath(job.manifest.id()));
+    }
+
+    private void fail(Job job, int attempt, String error) {
+        update(job, job.manifest.with(Status.FAILED, attempt, null, error));
+        try {
+            Files.deleteIfExists(dataPath(job.manifest.id()));
+        } catch (IOException ignore) {
+        }
+    }
+
+    private Duration backoff(int attempt) {
+        long initial = Math.max(1, settings.getInitialBackoff().toMillis());
+        long delay = initial << Math.min(20, attempt - 1);
+        return Duration.ofMillis(Math.min(delay, settings.getMaxBackoff().toMillis()));
+    }
+
+    private void update(Job job, Manifest next) {
+        job.manifest = next;
+        try {
+            writeManifest(next);
+        } catch (IOException e) {
+            log.warn("Could not persist upload manifest id={}", next.id(), e);
+        }
+    }
+
+    private void writeManifest(Manifest m) throws IOException {
+        Path target = manifestPath(m.id());
+        Path tmp = stagingDir.resolve(m.id() + ".json.tmp");
+        objectMapper.writeValue(tmp.toFile(), m);
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path dataPath(String id) {
+        return stagingDir.resolve(id + ".bin");
+    }
+
+    private Path manifestPath(String id) {
+        return stagingDir.resolve(id + ".json");
+    }
+
+    private static final class ProgressInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        ProgressInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) counter.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) counter.addAndGet(n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package org.massine.docsmanagerbackend.services;
+
+import org.massine.docsmanagerbackend.config.SftpConfig;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.models.Blob;
+import org.massine.docsmanagerbackend.repositories.BlobRepository;
+import org.massine.docsmanagerbackend.services.storage.ContentCache;
+import org.massine.docsmanagerbackend.services.storage.GzipCompressingInputStream;
+import org.massine.docsmanagerbackend.services.storage.StorageBackend;
+import org.massine.docsmanagerbackend.services.storage.StorageStat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Deduplicated storage of file contents. Uploads are hashed (SHA-256) while they stream to a
+ * temporary key; the object is then either renamed to its hash-derived key or, when that content
+ * is already stored, dropped in favour of the existing blob whose reference count is bumped.
+ */
+@Service
+public class BlobService {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobService.class);
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+    public static final String GZIP = "gzip";
+
+    /** {@code contentType} is only known when it was detected while the content streamed through. */
+    public record StoredBlob(String hash, String key, long size, long storedSize, String encoding, String contentType) {
+
+        public static StoredBlob of(Blob b) {
+            return new StoredBlob(b.getHash(), b.getPath(), b.getSize(), b.getStoredSize(), b.getEncoding(), null);
+        }
+
+        public StoredBlob withContentType(String contentType) {
+            return new StoredBlob(hash, key, size, storedSize, encoding, contentType);
+        }
+
+        public Double compressionRatio() {
+            return (encoding == null || size == 0) ? null : (double) storedSize / size;
+        }
+    }
+
+    private final BlobRepository blobs;
+    private final StorageBackend storage;
+    private final ContentCache contentCache;
+    private final SftpConfig sftpConfig;
+    private final StorageConfig.Compression compression;
+    private final StorageConfig.Renditions renditions;
+    private final TransactionTemplate tx;
+
+    public BlobService(BlobRepository blobs, StorageBackend storage, ContentCache contentCache,
+                       SftpConfig sftpConfig, StorageConfig storageConfig, PlatformTransactionManager transactionManager) {
+        this.blobs = blobs;
+        this.storage = storage;
+        this.contentCache = contentCache;
+        this.sftpConfig = sftpConfig;
+        this.compression = storageConfig.getCompression();
+        this.renditions = storageConfig.getRenditions();
+        this.tx = new TransactionTemplate(transactionManager);
+        this.tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public static boolean isValidHash(String hash) {
+        return hash != null && SHA256_HEX.matcher(hash).matches();
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public Blob find(String hash) {
+        return isValidHash(hash) ? blobs.findById(hash).orElse(null) : null;
+    }
+
+    public StoredBlob store(InputStream data) throws IOException {
+        return store(data, false);
+    }
+
+    /** Stores {@code data}, gzip-encoded at rest when {@code compress} is set; the hash is always of the original bytes. */
+    public StoredBlob store(InputStream data, boolean compress) throws IOException {
+        MessageDigest digest = newDigest();
+        String tmp = tempKey();
+        CountingInputStream original = new CountingInputStream(new DigestInputStream(data, digest));
+        InputStream encoded = compress ? new GzipCompressingInputStream(original, compression.getLevel()) : original;
+        long storedSize;
+        try (CountingInputStream in = new CountingInputStream(encoded)) {
+            storage.put(tmp, in);
+            storedSize = in.count;
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(tmp);
+            throw e;
+        }
+        return adopt(tmp, hex(digest), original.count, storedSize, compress ? GZIP : null);
+    }
+
+    /** Takes ownership of an object already written under {@code tempKey} whose hash is known. */
+    public StoredBlob adopt(String tempKey, String hash, long size) throws IOException {
+        return adopt(tempKey, hash, size, size, null);
+    }
+
+    private StoredBlob adopt(String tempKey, String hash, long size, long storedSize, String encoding) throws IOException {
+        if (addReference(hash)) {
+            deleteQuietly(tempKey);
+            return blobs.findById(hash).map(StoredBlob::of)
+                    .orElse(new StoredBlob(hash, keyFor(hash, encoding), size, storedSize, encoding, null));
+        }
+
+        // The key carries the encoding, so an object already there holds the same bytes; it is adopted, never replaced.
+        String key = keyFor(hash, encoding);
+        StorageStat existing = storage.stat(key);
+        if (existing != null) {
+            deleteQuietly(tempKey);
+            storedSize = existing.size();
+        } else {
+            try {
+                storage.rename(tempKey, key);
+            } catch (IOException e) {
+                existing = storage.stat(key);
+                deleteQuietly(tempKey);
+                if (existing == null) throw e;
+                storedSize = existing.size();
+            }
+        }
+        contentCache.invalidate(key);
+
+        StoredBlob candidate = new StoredBlob(hash, key, size, storedSize, encoding, null);
+        try {
+            tx.executeWithoutResult(status -> blobs.saveAndFlush(Blob.create(hash, key, size, candidate.storedSize(), encoding)));
+        } catch (DataIntegrityViolationException e) {
+            if (!addReference(hash)) throw e;
+            StoredBlob winner = blobs.findById(hash).map(StoredBlob::of).orElse(candidate);
+            if (!winner.key().equals(key)) deleteQuietly(key);
+            return winner;
+        }
+        return candidate;
+    }
+
+    /** Adds a reference to already stored content; returns {@code false} when no such blob exists. */
+    public boolean addReference(String hash) {
+        Integer updated = tx.execute(status -> blobs.incrementRef(hash));
+        return updated != null && updated > 0;
+    }
+
+    /** Drops one reference and removes the remote object together with the last one. */
+    public void release(String hash) throws IOException {
+        removeLocked(hash, true);
+    }
+
+    /**
+     * Removes blobs left without references by bulk statements such as pool deletion;
+     * returns how many were removed.
+     */
+    public int purgeUnreferenced(int limit) {
+        int removed = 0;
+        for (String hash : blobs.findUnreferenced(PageRequest.of(0, limit))) {
+            try {
+                if (removeLocked(hash, false)) removed++;
+            } catch (Exception e) {
+                log.warn("Could not purge unreferenced blob hash={}", hash, e);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Under the row lock, either drops one reference ({@code decrement}) or only checks that none is left,
+     * and deletes the remote object and the row once the count reaches zero.
+     */
+    private boolean removeLocked(String hash, boolean decrement) throws IOException {
+        try {
+            String removed = tx.execute(status -> {
+                Blob b = blobs.lockByHash(hash).orElse(null);
+                if (b == null) return null;
+                long remaining = decrement ? b.getRefCount() - 1 : b.getRefCount();
+                if (remaining > 0) {
+                    b.setRefCount(remaining);
+                    return null;
+                }
+                try {
+                    storage.delete(b.getPath());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                blobs.delete(b);
+                return b.getPath();
+            });
+            if (removed == null) return false;
+            contentCache.invalidate(removed);
+            for (String key : RenditionService.keysFor(removed, renditions)) {
+                deleteQuietly(key);
+                contentCache.invalidate(key);
+            }
+            return true;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Releases once the surrounding transaction has committed, or right away outside of one. */
+    public void releaseAfterCommit(Collection<String> hashes) {
+        List<String> pending = hashes.stream().filter(BlobService::isValidHash).toList();
+        if (pending.isEmpty()) return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            releaseQuietly(pending);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                releaseQuietly(pending);
+            }
+        });
+    }
+
+    public String keyFor(String hash) {
+        return keyFor(hash, null);
+    }
+
+    /** Encoded content lives under its own key so that differently encoded copies of one hash never collide. */
+    public String keyFor(String hash, String encoding) {
+        String key = sftpConfig.normalizedBaseDir() + "/blobs/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+        return GZIP.equals(encoding) ? key + ".gz" : key;
+    }
+
+    public String tempKey() {
+        return sftpConfig.normalizedBaseDir() + "/.uploads/tmp-" + UUID.randomUUID();
+    }
+
+    private void releaseQuietly(Collection<String> hashes) {
+        for (String hash : hashes) {
+            try {
+                release(hash);
+            } catch (Exception e) {
+                log.warn("Could not release blob hash={}", hash, e);
+            }
+        }
+    }
+
+    private void deleteQuietly(String key) {
+        try { storage.delete(key); } catch (Exception ignore) {}
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.massine.docsmanagerbackend.services;
+
+import org.massine.docsmanagerbackend.config.SftpConfig;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.models.File;
+import org.massine.docsmanagerbackend.models.Pool;
+import org.massine.docsmanagerbackend.models.UploadSession;
+import org.massine.docsmanagerbackend.models.User;
+import org.massine.docsmanagerbackend.repositories.UploadSessionRepository;
+import org.massine.docsmanagerbackend.services.BlobService.StoredBlob;
+import org.massine.docsmanagerbackend.services.storage.StorageBackend;
+import org.massine.docsmanagerbackend.services.storage.StorageResource;
+import org.massine.docsmanagerbackend.services.storage.StorageStat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resumable uploads sent as numbered chunks. Each chunk is stored as its own part object in a
+ * staging directory, so chunks may arrive in parallel, out of order or more than once. Completing
+ * the session concatenates the parts into a temporary object that is handed to the blob store,
+ * and only then is the {@link File} row created.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkedUploadService.class);
+    private static final Pattern PART_NAME = Pattern.compile("(\\d{6})\\.part");
+    private static final int MAX_CHUNKS = 999_999;
+
+    private final UploadSessionRepository sessions;
+    private final FileService fileService;
+    private final BlobService blobService;
+    private final RenditionService renditions;
+    private final StorageUsageService storageUsage;
+    private final StorageBackend storage;
+    private final SftpConfig sftpConfig;
+    private final StorageConfig.ChunkedUpload settings;
+    private final TransactionTemplate tx;
+
+    public ChunkedUploadService(UploadSessionRepository sessions, FileService fileService, BlobService blobService,
+                                RenditionService renditions, StorageUsageService storageUsage,
+                                StorageBackend storage, SftpConfig sftpConfig,
+                                StorageConfig storageConfig, PlatformTransactionManager transactionManager) {
+        this.sessions = sessions;
+        this.fileService = fileService;
+        this.blobService = blobService;
+        this.renditions = renditions;
+        this.storageUsage = storageUsage;
+        this.storage = storage;
+        this.sftpConfig = sftpConfig;
+        this.settings = storageConfig.getChunkedUpload();
+        this.tx = new TransactionTemplate(transactionManager);
+    }
+
+    public UploadSession start(Pool pool, User user, String originalName, long totalSize, Long requestedChunkSize,
+                               String name, String description, LocalDate expirationDate) {
+        if (totalSize <= 0 || totalSize > settings.getMaxSize().toBytes()) {
+            throw new IllegalArgumentException("INVALID_TOTAL_SIZE");
+        }
+        storageUsage.checkQuota(pool.getId(), user.getId(), totalSize);
+        long chunkSize = requestedChunkSize != null ? requestedChunkSize : settings.getDefaultChunkSize().toBytes();
+        if (chunkSize < settings.getMinChunkSize().toBytes() || chunkSize > settings.getMaxChunkSize().toBytes()) {
+            throw new IllegalArgumentException("INVALID_CHUNK_SIZE");
+        }
+        long chunkCount = (totalSize + chunkSize - 1) / chunkSize;
+        if (chunkCount > MAX_CHUNKS) {
+            throw new IllegalArgumentException("TOO_MANY_CHUNKS");
+        }
+
+        Instant now = Instant.now();
+        UploadSession s = new UploadSession();
+        s.setId(UUID.randomUUID().toString());
+        s.setPool(pool);
+        s.setUser(user);
+        s.setFileName(originalName);
+        s.setDisplayName(name);
+        s.setDescription(description);
+        s.setExpirationDate(expirationDate);
+        s.setTotalSize(totalSize);
+        s.setChunkSize(chunkSize);
+        s.setChunkCount((int) chunkCount);
+        s.setCreatedAt(now);
+        s.setUpdatedAt(now);
+        return sessions.save(s);
+    }
+
+    public UploadSession find(String id) {
+        return sessions.findById(id).orElse(null);
+    }
+
+    public long expectedChunkLength(UploadSession s, int index) {
+        if (index < 0 || index >= s.getChunkCount()) throw new IllegalArgumentException("INVALID_CHUNK_INDEX");
+        long offset = index * s.getChunkSize();
+        return Math.min(s.getChunkSize(), s.getTotalSize() - offset);
+    }
+
+    /** Stores one chunk; sending the same chunk again replaces it. */
+    public void putChunk(UploadSession s, int index, InputStream body) throws IOException {
+        if (!UploadSession.OPEN.equals(s.getStatus())) throw new IllegalStateException("UPLOAD_NOT_OPEN");
+        long expected = expectedChunkLength(s, index);
+        String key = partKey(s.getId(), index);
+
+        CountingInputStream counted = new CountingInputStream(body, expected + 1);
+        storage.put(key, counted);
+        if (counted.count != expected) {
+            storage.delete(key);
+            throw new IllegalArgumentException("CHUNK_SIZE_MISMATCH expected=" + expected + " received=" + counted.count);
+        }
+        tx.executeWithoutResult(status -> sessions.touch(s.getId(), Instant.now()));
+    }
+
+    public List<Integer> receivedChunks(UploadSession s) throws IOException {
+        List<Integer> received = new ArrayList<>();
+        for (StorageStat st : storage.list(stagingDir(s.getId()))) {
+            String key = st.key();
+            Matcher m = PART_NAME.matcher(key.substring(key.lastIndexOf('/') + 1));
+            if (!m.matches()) continue;
+            int index = Integer.parseInt(m.group(1));
+            if (index < s.getChunkCount() && st.size() == expectedChunkLength(s, index)) received.add(index);
+        }
+        received.sort(null);
+        return received;
+    }
+
+    public File complete(UploadSession s) throws Exception {
+        if (UploadSession.COMPLETED.equals(s.getStatus()) && s.getFileId() != null) {
+            return fileService.getFileById(s.getFileId());
+        }
+        if (!transition(s.getId(), UploadSession.OPEN, UploadSession.COMPLETING)) {
+            throw new IllegalStateException("UPLOAD_BUSY");
+        }
+        try {
+            if (receivedChunks(s).size() != s.getChunkCount()) {
+                throw new IllegalStateException("CHUNKS_MISSING");
+            }
+
+            String assembled = stagingDir(s.getId()) + "/assembled";
+            storage.delete(assembled);
+            MessageDigest digest = BlobService.newDigest();
+            ContentTypes.Sniffer sniffer = null;
+            for (int i = 0; i < s.getChunkCount(); i++) {
+                try (StorageResource part = storage.get(partKey(s.getId(), i))) {
+                    InputStream in = new DigestInputStream(part.getInputStream(), digest);
+                    if (i == 0) in = sniffer = new ContentTypes.Sniffer(in);
+                    storage.append(assembled, in);
+                }
+            }
+            StorageStat st = storage.stat(assembled);
+            if (st == null || st.size() != s.getTotalSize()) {
+                throw new IOException("Assembled size mismatch for upload " + s.getId());
+            }
+
+            StoredBlob stored = blobService.adopt(assembled, BlobService.hex(digest), st.size())
+                    .withContentType(sniffer == null ? null : sniffer.detect(s.getFileName()));
+            File created;
+            try {
+                created = tx.execute(status -> {
+                    File f = fileService.newFileRecord(s.getPool(), s.getUser(), s.getDisplayName(), s.getFileName(),
+                            fileService.sanitizeFilename(s.getFileName()), s.getDescription());
+                    fileService.applyContent(f, stored);
+                    f.setExpirationDate(s.getExpirationDate());
+                    File saved = fileService.saveFile(f);
+                    UploadSession managed = sessions.findById(s.getId()).orElseThrow();
+                    managed.setStatus(UploadSession.COMPLETED);
+                    managed.setFileId(saved.getId());
+                    managed.setUpdatedAt(Instant.now());
+                    sessions.save(managed);
+                    return saved;
+                });
+            } catch (RuntimeException e) {
+                blobService.release(stored.hash());
+                throw e;
+            }
+            removeStaging(s);
+            renditions.schedule(created);
+            return created;
+        } catch (Exception e) {
+            transition(s.getId(), UploadSession.COMPLETING, UploadSession.OPEN);
+            throw e;
+        }
+    }
+
+    public void abort(UploadSession s) throws IOException {
+        removeStaging(s);
+        sessions.deleteById(s.getId());
+    }
+
+    @Scheduled(fixedDelayString = "${storage.chunked-upload.cleanup-interval:PT1H}")
+    public void purgeExpired() {
+        Instant cutoff = Instant.now().minus(settings.getSessionTtl());
+        for (UploadSession s : sessions.findTop100ByUpdatedAtBefore(cutoff)) {
+            try {
+                removeStaging(s);
+                sessions.deleteById(s.getId());
+            } catch (Exception e) {
+                log.warn("Could not purge upload session id={}", s.getId(), e);
+            }
+        }
+    }
+
+    private boolean transition(String id, String from, String to) {
+        Integer updated = tx.execute(status -> sessions.transition(id, from, to, Instant.now()));
+        return updated != null && updated > 0;
+    }
+
+    private void removeStaging(UploadSession s) throws IOException {
+        String dir = stagingDir(s.getId());
+        for (StorageStat st : storage.list(dir)) {
+            if (!st.directory()) storage.delete(st.key());
+        }
+        storage.deleteDirectory(dir);
+    }
+
+    private String stagingDir(String id) {
+        return sftpConfig.normalizedBaseDir() + "/" + settings.getStagingDirectory() + "/" + id;
+    }
+
+    private String partKey(String id, int index) {
+        return stagingDir(id) + "/" + String.format("%06d.part", index);
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        CountingInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (count >= limit) return -1;
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (count >= limit) return -1;
+            int n = super.read(b, off, (int) Math.min(len, limit - count));
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.massine.docsmanagerbackend.services;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content type detection from the first bytes of a file, falling back to the file name for
+ * formats without a signature (and to tell apart the formats that share a container, such as
+ * OOXML documents in ZIP or legacy Office files in OLE2). Runs once at upload; the result is
+ * stored on the file and served as is.
+ */
+public final class ContentTypes {
+
+    /** Bytes needed by the deepest signature in the table (the tar magic at offset 257) with room for text sniffing. */
+    public static final int HEAD_SIZE = 4096;
+
+    public static final String OCTET_STREAM = MediaType.APPLICATION_OCTET_STREAM_VALUE;
+
+    private record Signature(int offset, byte[] magic, String type) {}
+
+    private static final Signature[] SIGNATURES = {
+            sig(0, "%PDF-", "application/pdf"),
+            sig(0, new int[]{0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A}, "image/png"),
+            sig(0, new int[]{0xFF, 0xD8, 0xFF}, "image/jpeg"),
+            sig(0, "GIF87a", "image/gif"),
+            sig(0, "GIF89a", "image/gif"),
+            sig(0, new int[]{'I', 'I', 0x2A, 0x00}, "image/tiff"),
+            sig(0, new int[]{'M', 'M', 0x00, 0x2A}, "image/tiff"),
+            sig(0, new int[]{0x00, 0x00, 0x01, 0x00}, "image/vnd.microsoft.icon"),
+            sig(0, "8BPS", "image/vnd.adobe.photoshop"),
+            sig(0, new int[]{0x1A, 0x45, 0xDF, 0xA3}, "video/x-matroska"),
+            sig(0, "OggS", "application/ogg"),
+            sig(0, "fLaC", "audio/flac"),
+            sig(0, "ID3", "audio/mpeg"),
+            sig(0, "MThd", "audio/midi"),
+            sig(0, "#!AMR", "audio/amr"),
+            sig(0, new int[]{'F', 'L', 'V', 0x01}, "video/x-flv"),
+            sig(0, new int[]{0x1F, 0x8B}, "application/gzip"),
+            sig(0, "BZh", "application/x-bzip2"),
+            sig(0, new int[]{0xFD, '7', 'z', 'X', 'Z', 0x00}, "application/x-xz"),
+            sig(0, new int[]{0x28, 0xB5, 0x2F, 0xFD}, "application/zstd"),
+            sig(0, new int[]{'7', 'z', 0xBC, 0xAF, 0x27, 0x1C}, "application/x-7z-compressed"),
+            sig(0, "Rar!", "application/vnd.rar"),
+            sig(257, "ustar", "application/x-tar"),
+            sig(0, new int[]{'P', 'K', 0x03, 0x04}, "application/zip"),
+            sig(0, new int[]{'P', 'K', 0x05, 0x06}, "application/zip"),
+            sig(0, new int[]{0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A, 0xE1}, "application/x-ole-storage"),
+            sig(0, "{\\rtf", "application/rtf"),
+            sig(0, "%!PS", "application/postscript"),
+            sig(0, "SQLite format 3\0", "application/vnd.sqlite3"),
+            sig(0, new int[]{0x00, 'a', 's', 'm'}, "application/wasm"),
+            sig(0, "wOFF", "font/woff"),
+            sig(0, "wOF2", "font/woff2"),
+            sig(0, new int[]{0x00, 0x01, 0x00, 0x00, 0x00}, "font/ttf"),
+            sig(0, "OTTO", "font/otf"),
+            sig(0, new int[]{0x7F, 'E', 'L', 'F'}, "application/x-elf"),
+            sig(0, "MZ", "application/vnd.microsoft.portable-executable"),
+    };
+
+    /** Formats recognised from the ZIP or OLE2 container alone, refined by the file extension. */
+    private static final Map<String, String> CONTAINER_EXTENSIONS = Map.ofEntries(
+            Map.entry("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"),
+            Map.entry("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"),
+            Map.entry("pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation"),
+            Map.entry("odt", "application/vnd.oasis.opendocument.text"),
+            Map.entry("ods", "application/vnd.oasis.opendocument.spreadsheet"),
+            Map.entry("odp", "application/vnd.oasis.opendocument.presentation"),
+            Map.entry("epub", "application/epub+zip"),
+            Map.entry("jar", "application/java-archive"),
+            Map.entry("apk", "application/vnd.android.package-archive"),
+            Map.entry("doc", "application/msword"),
+            Map.entry("xls", "application/vnd.ms-excel"),
+            Map.entry("ppt", "application/vnd.ms-powerpoint"),
+            Map.entry("msg", "application/vnd.ms-outlook"));
+
+    /** Text formats the name decides between once the bytes look like text. */
+    private static final Set<String> TEXT_LIKE = Set.of(
+            "application/json", "application/xml", "application/javascript", "application/x-yaml",
+            "application/yaml", "application/sql", "application/x-sh", "application/rtf");
+
+    private ContentTypes() {}
+
+    /** Detects the type of content starting with {@code head[0..length)}; never returns {@code null}. */
+    public static String detect(byte[] head, int length, String filename) {
+        String byName = byName(filename);
+        if (head == null || length <= 0) return byName;
+
+        String magic = byMagic(head, length);
+        if (magic != null) {
+            if (magic.equals("application/zip") || magic.equals("application/x-ole-storage")) {
+                String refined = CONTAINER_EXTENSIONS.get(extension(filename));
+                return refined != null ? refined : magic.equals("application/zip") ? magic : OCTET_STREAM;
+            }
+            if (magic.equals("video/x-matroska") && contains(head, Math.min(length, 64), ascii("webm"))) return "video/webm";
+            return magic;
+        }
+
+        if (!looksLikeText(head, length)) return byName.startsWith("text/") ? OCTET_STREAM : byName;
+        if (isTextual(byName)) return byName;
+        String markup = byMarkup(head, length);
+        return markup != null ? markup : MediaType.TEXT_PLAIN_VALUE;
+    }
+
+    /** Whether {@code type} (without parameters) is text, including the textual application formats. */
+    public static boolean isTextual(String type) {
+        return type.startsWith("text/") || TEXT_LIKE.contains(type) || type.endsWith("+xml");
+    }
+
+    /** Type implied by the file name alone. */
+    public static String byName(String filename) {
+        if (filename == null || filename.isBlank()) return OCTET_STREAM;
+        return MediaTypeFactory.getMediaType(filename).map(MediaType::toString).orElse(OCTET_STREAM);
+    }
+
+    private static String byMagic(byte[] head, int length) {
+        for (Signature s : SIGNATURES) {
+            if (matches(head, length, s.offset(), s.magic())) return s.type();
+        }
+        if (length >= 12 && matches(head, length, 0, ascii("RIFF"))) {
+            String form = new String(head, 8, 4, StandardCharsets.US_ASCII);
+            return switch (form) {
+                case "WEBP" -> "image/webp";
+                case "WAVE" -> "audio/wav";
+                case "AVI " -> "video/x-msvideo";
+                default -> null;
+            };
+        }
+        if (length >= 12 && matches(head, length, 4, ascii("ftyp"))) {
+            return isoMedia(new String(head, 8, 4, StandardCharsets.US_ASCII));
+        }
+        if (length >= 10 && matches(head, length, 0, ascii("BM")) && head[6] == 0 && head[7] == 0
+                && head[8] == 0 && head[9] == 0) {
+            return "image/bmp";
+        }
+        if (length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xE0) == 0xE0) {
+            int version = (head[1] >> 3) & 0x03;
+            int layer = (head[1] >> 1) & 0x03;
+            if (layer == 0) return (head[1] & 0xF6) == 0xF0 ? "audio/aac" : null;
+            return version != 1 ? "audio/mpeg" : null;
+        }
+        return null;
+    }
+
+    private static String isoMedia(String brand) {
+        return switch (brand) {
+            case "qt  " -> "video/quicktime";
+            case "M4A ", "M4B " -> "audio/mp4";
+            case "heic", "heix", "mif1", "msf1" -> "image/heic";
+            case "avif", "avis" -> "image/avif";
+            case "3gp4", "3gp5", "3gp6", "3ge6", "3gg6" -> "video/3gpp";
+            default -> "video/mp4";
+        };
+    }
+
+    private static String byMarkup(byte[] head, int length) {
+        String text = new String(head, 0, length, StandardCharsets.UTF_8).stripLeading().toLowerCase(Locale.ROOT);
+        if (text.startsWith("\uFEFF")) text = text.substring(1).stripLeading();
+        if (text.startsWith("<!doctype html") || text.startsWith("<html")) return MediaType.TEXT_HTML_VALUE;
+        if (text.startsWith("<svg") || (text.startsWith("<?xml") && text.contains("<svg"))) return "image/svg+xml";
+        if (text.startsWith("<?xml")) return MediaType.APPLICATION_XML_VALUE;
+        if (text.startsWith("{") || text.startsWith("[")) return MediaType.APPLICATION_JSON_VALUE;
+        return null;
+    }
+
+    /** No NUL bytes and valid UTF-8, tolerating a multi-byte sequence cut off at the end of the head. */
+    private static boolean looksLikeText(byte[] head, int length) {
+        for (int i = 0; i < length; i++) {
+            if (head[i] == 0) return false;
+        }
+        int end = length;
+        for (int i = length - 1; i >= Math.max(0, length - 3); i--) {
+            int b = head[i] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                if (b >= 0xC0) end = i;
+                break;
+            }
+        }
+        try {
+            StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(head, 0, end));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    private static boolean matches(byte[] head, int length, int offset, byte[] magic) {
+        if (length < offset + magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if (head[offset + i] != magic[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean contains(byte[] head, int length, byte[] needle) {
+        for (int i = 0; i + needle.length <= length; i++) {
+            if (matches(head, length, i, needle)) return true;
+        }
+        return false;
+    }
+
+    private static String extension(String filename) {
+        if (filename == null) return "";
+        int dot = filename.lastIndexOf('.');
+        return dot < 0 ? "" : filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static Signature sig(int offset, String magic, String type) {
+        return new Signature(offset, ascii(magic), type);
+    }
+
+    private static Signature sig(int offset, int[] magic, String type) {
+        byte[] bytes = new byte[magic.length];
+        for (int i = 0; i < magic.length; i++) bytes[i] = (byte) magic[i];
+        return new Signature(offset, bytes, type);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Pass-through stream that keeps a copy of the first {@link #HEAD_SIZE} bytes read from it,
+     * so detection can run on an upload without buffering or re-reading it.
+     */
+    public static final class Sniffer extends FilterInputStream {
+        private final byte[] head = new byte[HEAD_SIZE];
+        private int captured;
+
+        public Sniffer(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && captured < head.length) head[captured++] = (byte) b;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0 && captured < head.length) {
+                int copy = Math.min(n, head.length - captured);
+                System.arraycopy(b, off, head, captured, copy);
+                captured += copy;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            return 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        public String detect(String filename) {
+            return ContentTypes.detect(head, captured, filename);
+        }
+    }
+}
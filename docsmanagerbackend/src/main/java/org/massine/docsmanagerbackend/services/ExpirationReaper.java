@@ -0,0 +1,100 @@
+package org.massine.docsmanagerbackend.services;
+
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.repositories.FileRepository;
+import org.massine.docsmanagerbackend.repositories.FileRepository.ContentRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Removes files whose {@code expirationDate} has passed. Expired rows are read in id-ordered
+ * batches, then locked and checked again before one statement per batch deletes them; the content
+ * read under that lock is released once the statement has committed. Remote deletes are paced to
+ * {@code storage.expiration.deletes-per-second} and a run stops after
+ * {@code storage.expiration.max-files-per-run} files.
+ */
+@Service
+public class ExpirationReaper {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpirationReaper.class);
+
+    private final FileRepository fileRepository;
+    private final FileService fileService;
+    private final StorageUsageService storageUsage;
+    private final StorageConfig.Expiration settings;
+    private final TransactionTemplate tx;
+
+    public ExpirationReaper(FileRepository fileRepository, FileService fileService,
+                            StorageUsageService storageUsage, StorageConfig storageConfig,
+                            PlatformTransactionManager transactionManager) {
+        this.fileRepository = fileRepository;
+        this.fileService = fileService;
+        this.storageUsage = storageUsage;
+        this.settings = storageConfig.getExpiration();
+        this.tx = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(initialDelayString = "PT1M", fixedDelayString = "${storage.expiration.interval:PT15M}")
+    public void reap() {
+        if (!settings.isEnabled()) return;
+        LocalDate today = LocalDate.now();
+        int batchSize = Math.max(1, settings.getBatchSize());
+        long pauseNanos = settings.getDeletesPerSecond() > 0
+                ? TimeUnit.SECONDS.toNanos(1) / settings.getDeletesPerSecond() : 0L;
+
+        int afterId = 0;
+        int reaped = 0;
+        while (reaped < settings.getMaxFilesPerRun()) {
+            int limit = Math.min(batchSize, settings.getMaxFilesPerRun() - reaped);
+            List<ContentRef> batch = fileRepository.findExpired(today, afterId, PageRequest.of(0, limit));
+            if (batch.isEmpty()) break;
+            afterId = batch.get(batch.size() - 1).getId();
+
+            List<Integer> ids = batch.stream().map(ContentRef::getId).toList();
+            List<ContentRef> expired = tx.execute(status -> {
+                List<ContentRef> locked = fileRepository.lockExpired(ids, today);
+                if (locked.isEmpty()) return locked;
+                fileRepository.deleteAllByIdIn(locked.stream().map(ContentRef::getId).toList());
+                releaseUsage(locked);
+                return locked;
+            });
+
+            for (ContentRef ref : expired) {
+                long startedAt = System.nanoTime();
+                try {
+                    fileService.releaseContent(ref.getContentHash(), ref.getPath());
+                } catch (Exception e) {
+                    log.warn("Could not release expired content id={} hash={} path={}",
+                            ref.getId(), ref.getContentHash(), ref.getPath(), e);
+                }
+                long remaining = pauseNanos - (System.nanoTime() - startedAt);
+                if (remaining > 0) LockSupport.parkNanos(remaining);
+            }
+            reaped += expired.size();
+        }
+        if (reaped > 0) log.info("Reaped {} expired files", reaped);
+    }
+
+    /** One counter update per pool and uploader in the batch rather than one per file. */
+    private void releaseUsage(List<ContentRef> batch) {
+        Map<List<Integer>, long[]> deltas = new HashMap<>();
+        for (ContentRef ref : batch) {
+            long[] d = deltas.computeIfAbsent(List.of(ref.getPoolId(), ref.getUploaderId()), k -> new long[2]);
+            d[0] += ref.getSize() == null ? 0L : ref.getSize();
+            d[1]++;
+        }
+        deltas.forEach((k, d) -> storageUsage.add(k.get(0), k.get(1), -d[0], -d[1]));
+    }
+}
@@ -0,0 +1,32 @@
+package org.massine.docsmanagerbackend.services;
+
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.models.Pool;
+import org.springframework.http.CacheControl;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code Cache-Control} for file content. Content of public pools may be stored by shared caches,
+ * content of private pools only by the client. The pool's {@code cacheMaxAge} overrides the
+ * configured default; zero means every reuse is revalidated, which the ETag makes cheap.
+ */
+@Service
+public class FileCachePolicy {
+
+    private final StorageConfig.HttpCache settings;
+
+    public FileCachePolicy(StorageConfig storageConfig) {
+        this.settings = storageConfig.getHttpCache();
+    }
+
+    public CacheControl forPool(Pool pool) {
+        boolean isPublic = Boolean.TRUE.equals(pool.getPublicAccess());
+        long maxAge = pool.getCacheMaxAge() != null
+                ? pool.getCacheMaxAge()
+                : (isPublic ? settings.getPublicMaxAge() : settings.getPrivateMaxAge()).toSeconds();
+        CacheControl cacheControl = maxAge > 0 ? CacheControl.maxAge(maxAge, TimeUnit.SECONDS) : CacheControl.noCache();
+        return isPublic ? cacheControl.cachePublic() : cacheControl.cachePrivate();
+    }
+}
@@ -1,54 +1,95 @@
 package org.massine.docsmanagerbackend.services;
 
-import org.massine.docsmanagerbackend.config.SftpConfig;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.models.Blob;
 import org.massine.docsmanagerbackend.models.File;
 import org.massine.docsmanagerbackend.models.Pool;
 import org.massine.docsmanagerbackend.models.User;
 import org.massine.docsmanagerbackend.repositories.FileRepository;
-import com.jcraft.jsch.*;
-import org.springframework.core.io.InputStreamResource;
+import org.massine.docsmanagerbackend.services.BlobService.StoredBlob;
+import org.massine.docsmanagerbackend.services.storage.ContentCache;
+import org.massine.docsmanagerbackend.services.storage.ParallelFetcher;
+import org.massine.docsmanagerbackend.services.storage.StorageBackend;
+import org.massine.docsmanagerbackend.services.storage.StorageResource;
+import org.massine.docsmanagerbackend.services.storage.StorageStat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPInputStream;
 
 
 @Service
 public class FileService {
 
-    private final SftpConfig sftpConfig;
-    private final FileRepository fileRepository;
+    private static final Logger log = LoggerFactory.getLogger(FileService.class);
 
-    private static final ConcurrentLinkedQueue<Session> sessionPool = new ConcurrentLinkedQueue<>();
-    private static final int MAX_POOL_SIZE = 5;
+    private final FileRepository fileRepository;
 
-    public FileService(SftpConfig sftpConfig, FileRepository fileRepository) {
-        this.sftpConfig = sftpConfig;
+    private final StorageBackend storage;
+    private final ContentCache contentCache;
+    private final ParallelFetcher parallelFetcher;
+    private final BlobService blobService;
+    private final StorageConfig.Compression compression;
+    private final StorageConfig.Renditions renditions;
+    private final StorageUsageService storageUsage;
+    private final StorageLimiter limiter;
+
+    public FileService(StorageConfig storageConfig, FileRepository fileRepository,
+                       StorageBackend storage, ContentCache contentCache, ParallelFetcher parallelFetcher,
+                       BlobService blobService, StorageUsageService storageUsage, StorageLimiter limiter) {
         this.fileRepository = fileRepository;
+        this.storage = storage;
+        this.contentCache = contentCache;
+        this.parallelFetcher = parallelFetcher;
+        this.blobService = blobService;
+        this.compression = storageConfig.getCompression();
+        this.renditions = storageConfig.getRenditions();
+        this.storageUsage = storageUsage;
+        this.limiter = limiter;
     }
 
 
-    public List<File> getAllFiles() { return fileRepository.findAll(); }
+    public List<File> getAllFiles() { return fileRepository.findAllLive(LocalDate.now()); }
 
-    public long getFilesCount() { return fileRepository.count(); }
+    public long getFilesCount() { return fileRepository.countLive(LocalDate.now()); }
 
     public File getFileById(int id) { return fileRepository.findById(id).orElse(null); }
 
+    public File findByUploadId(String uploadId) { return fileRepository.findByUploadId(uploadId).orElse(null); }
+
     public Optional<File> getOptional(int id) { return fileRepository.findById(id); }
 
     public Pool findPoolById(int fileId) { return fileRepository.findPoolById(fileId); }
     public List<File> findByPoolId(int poolId) {
-        return fileRepository.findByPoolId(poolId);
+        return fileRepository.findLiveByPoolId(poolId, LocalDate.now());
     }
+
+    public long countByPoolId(int poolId) { return fileRepository.countLiveByPoolId(poolId, LocalDate.now()); }
     public String findPath(int id) { return fileRepository.findPath(id); }
 
     public User findUploader(int fileId) { return fileRepository.findUploader(fileId); }
 
-    public File saveFile(File file) { return fileRepository.save(file); }
+    /** Inserts a new file row and counts it towards its pool and uploader, failing if that breaks a quota. */
+    @Transactional
+    public File saveFile(File file) {
+        File saved = fileRepository.save(file);
+        int poolId = saved.getPool().getId();
+        int userId = saved.getUserUploader().getId();
+        storageUsage.add(poolId, userId, sizeOf(saved), 1);
+        storageUsage.checkQuota(poolId, userId, 0);
+        return saved;
+    }
 
     public void deleteFileById(int id) { fileRepository.deleteById(id); }
 
@@ -60,77 +101,172 @@ public class FileService {
         if (patch.getDescription() != null) mf.setDescription(patch.getDescription());
         if (patch.getExpirationDate() != null) mf.setExpirationDate(patch.getExpirationDate());
         if (patch.getPath() != null) mf.setPath(patch.getPath());
+        if (patch.getContentHash() != null) mf.setContentHash(patch.getContentHash());
         if (patch.getPool() != null) mf.setPool(patch.getPool());
         if (patch.getUserUploader() != null) mf.setUserUploader(patch.getUserUploader());
         return fileRepository.save(mf);
     }
 
 
-    private Session createSession() throws JSchException {
-        JSch jsch = new JSch();
-        jsch.addIdentity(sftpConfig.getPrivateKeyPath());
-        Session session = jsch.getSession(
-                sftpConfig.getUsername(),
-                sftpConfig.getHost(),
-                sftpConfig.getPort()
-        );
-        session.setConfig("StrictHostKeyChecking", "no");
-        session.setConfig("compression.s2c", "none");
-        session.setConfig("compression.c2s", "none");
-        session.connect();
-        return session;
-    }
-
-    private ChannelSftp openSftp(Session session) throws JSchException {
-        ChannelSftp ch = (ChannelSftp) session.openChannel("sftp");
-        ch.connect();
-        return ch;
-    }
-    public void uploadToDir(String remoteDir, String filename, InputStream data) throws Exception {
-        Session session = null;
-        ChannelSftp sftp = null;
-        try (InputStream in = data) {
-            session = getSession();
-            sftp = openSftp(session);
-
-            String absDir = normaliseAbs(remoteDir);
-            ensureDirectoryStrict(sftp, absDir);
-            sftp.cd(absDir);
-
-            sftp.put(in, filename);
-        } catch (SftpException se) {
-            throw new RuntimeException("SFTP_ERROR dir="+remoteDir+" file="+filename+" host="+sftpConfig.getHost()+":"+sftpConfig.getPort(), se);
-        } finally {
-            if (sftp != null) sftp.disconnect();
-            returnSession(session);
+    public File newFileRecord(Pool pool, User u, String name, String originalFilename,
+                              String safeName, String description) {
+        String displayName = (name != null && !name.trim().isEmpty()) ? name : safeName;
+
+        if (name != null && !name.trim().isEmpty()) {
+            String originalExtension = fileExtension(originalFilename);
+            if (originalExtension != null && !displayName.toLowerCase().endsWith(originalExtension.toLowerCase())) {
+                displayName = displayName + originalExtension;
+            }
+        }
+
+        File file = new File();
+        file.setName(displayName);
+        file.setPool(pool);
+        file.setUserUploader(u);
+        file.setCreatedAt(Instant.now());
+        file.setDescription(description);
+        return file;
+    }
+
+    private static String fileExtension(String filename) {
+        if (filename == null) return null;
+        int lastDotIndex = filename.lastIndexOf('.');
+        return lastDotIndex > 0 ? filename.substring(lastDotIndex) : null;
+    }
+
+    /** Stores an upload, detecting its content type from the first bytes as they stream through. */
+    public StoredBlob storeContent(InputStream data, String filename) throws Exception {
+        try (ContentTypes.Sniffer in = new ContentTypes.Sniffer(data)) {
+            return blobService.store(in, isCompressible(filename)).withContentType(in.detect(filename));
         }
     }
 
-    private String normaliseAbs(String p) {
-        if (p == null || p.isBlank()) return sftpConfig.normalizedBaseDir();
-        String out = p.replaceAll("/{2,}","/").trim();
-        if (!out.startsWith("/")) out = "/" + out;
-        String base = sftpConfig.normalizedBaseDir();
-        return out.startsWith(base) ? out : (base + (out.equals("/") ? "" : out));
+    /**
+     * Detects the content type of already stored content from its first bytes, for content that
+     * did not stream through {@link #storeContent}. Falls back to the name when storage cannot be read.
+     */
+    public String detectStoredType(String path, String encoding, long storedSize, String filename) {
+        try (StorageResource rs = limiter.open(false, () -> encoding == null
+                ? contentCache.getRange(path, 0, Math.min(storedSize, ContentTypes.HEAD_SIZE))
+                : contentCache.get(path));
+             InputStream in = encoding == null ? rs.getInputStream() : new GZIPInputStream(rs.getInputStream())) {
+            byte[] head = in.readNBytes(ContentTypes.HEAD_SIZE);
+            return ContentTypes.detect(head, head.length, filename);
+        } catch (Exception e) {
+            log.debug("Could not read the head of {}, typing it by name", path, e);
+            return ContentTypes.byName(filename);
+        }
+    }
+
+    public boolean isCompressible(String filename) {
+        if (!compression.isEnabled() || filename == null) return false;
+        String ext = fileExtension(filename);
+        return ext != null && compression.getExtensions().contains(ext.substring(1).toLowerCase());
+    }
+
+    /** Points a file row at stored content. */
+    public void applyContent(File file, StoredBlob stored) {
+        file.setPath(stored.key());
+        file.setContentHash(stored.hash());
+        file.setContentEncoding(stored.encoding());
+        file.setCompressionRatio(stored.compressionRatio());
+        file.setRenditionState(null);
+        file.setSize(stored.size());
+        file.setStoredSize(stored.storedSize());
+        file.setContentType(stored.contentType() != null ? stored.contentType() : ContentTypes.byName(file.getName()));
+        file.setContentModifiedAt(Instant.now());
+    }
+
+
+    private static long sizeOf(File file) {
+        return file.getSize() == null ? 0L : file.getSize();
+    }
+
+    /** Opens the original bytes of a file, decoding content that is stored compressed. */
+    public InputStream openContent(File file) throws Exception {
+        StorageResource rs = openStored(file);
+        try {
+            return decode(file, rs.getInputStream());
+        } catch (IOException e) {
+            rs.close();
+            throw e;
+        }
     }
 
-    public void ensureDirectoryStrict(ChannelSftp sftp, String absoluteDir) throws SftpException {
-        String[] parts = absoluteDir.replaceAll("/{2,}","/").split("/");
-        String cur = "";
-        for (String part : parts) {
-            if (part == null || part.isBlank()) continue;
-            cur += "/" + part;
+    public InputStream decode(File file, InputStream stored) throws IOException {
+        if (!BlobService.GZIP.equals(file.getContentEncoding())) return stored;
+        return new GZIPInputStream(stored, 64 * 1024);
+    }
+
+    /**
+     * Looks up stored content by hash, limited to content already referenced from one of
+     * {@code poolIds} so that hashes cannot be used to probe other pools.
+     */
+    public Blob findVisibleBlob(String contentHash, Collection<Integer> poolIds) {
+        if (!BlobService.isValidHash(contentHash) || poolIds.isEmpty()) return null;
+        if (!fileRepository.existsByContentHashAndPoolIdIn(contentHash, poolIds)) return null;
+        return blobService.find(contentHash);
+    }
+
+    public boolean addContentReference(String contentHash) {
+        return blobService.addReference(contentHash);
+    }
+
+    /** Drops a reference to stored content: shared blobs are released, legacy objects deleted. */
+    public void releaseContent(String contentHash, String path) throws Exception {
+        if (contentHash != null) {
+            blobService.release(contentHash);
+        } else {
+            deleteRemote(path);
+            for (String key : RenditionService.keysFor(path, renditions)) deleteRemote(key);
+        }
+    }
+
+    /** Deletes the row; its content is released only once the deletion has committed. */
+    @Transactional
+    public void deleteFileAndContent(File file) {
+        fileRepository.deleteById(file.getId());
+        storageUsage.add(file.getPool().getId(), file.getUserUploader().getId(), -sizeOf(file), -1);
+        releaseContentAfterCommit(file.getContentHash(), file.getPath());
+    }
+
+    /** Updates the row to point at new content; the previous content is released after commit. */
+    @Transactional
+    public File replaceFileEntity(int id, File patch, String previousHash, String previousPath, Long previousSize) {
+        File updated = updateFileEntity(id, patch);
+        if (updated == null) return null;
+        updated.setContentEncoding(patch.getContentEncoding());
+        updated.setCompressionRatio(patch.getCompressionRatio());
+        updated.setRenditionState(null);
+        updated.setSize(patch.getSize());
+        updated.setStoredSize(patch.getStoredSize());
+        updated.setContentType(patch.getContentType());
+        updated.setContentModifiedAt(patch.getContentModifiedAt());
+        long delta = sizeOf(updated) - (previousSize == null ? 0L : previousSize);
+        storageUsage.add(updated.getPool().getId(), updated.getUserUploader().getId(), delta, 0);
+        storageUsage.checkQuota(updated.getPool().getId(), updated.getUserUploader().getId(), 0);
+        releaseContentAfterCommit(previousHash, previousPath);
+        return fileRepository.save(updated);
+    }
+
+    private void releaseContentAfterCommit(String contentHash, String path) {
+        Runnable release = () -> {
             try {
-                sftp.cd(cur);
-            } catch (SftpException e) {
-                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
-                    sftp.mkdir(cur);
-                    sftp.cd(cur);
-                } else {
-                    throw e;
-                }
+                releaseContent(contentHash, path);
+            } catch (Exception e) {
+                log.warn("Could not release content hash={} path={}", contentHash, path, e);
             }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            release.run();
+            return;
         }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                release.run();
+            }
+        });
     }
 
     public String sanitizeFilename(String original) {
@@ -166,82 +302,63 @@ public class FileService {
 
 
     public void deleteRemote(String remotePath) throws Exception {
-        Session session = null;
-        ChannelSftp sftp = null;
         try {
-            session = createSession();
-            sftp = openSftp(session);
-            try {
-                sftp.rm(remotePath);
-            } catch (SftpException ignore) {}
+            storage.delete(remotePath);
         } finally {
-            if (sftp != null) sftp.disconnect();
-            if (session != null) session.disconnect();
+            contentCache.invalidate(remotePath);
         }
     }
 
-    public RemoteStream getRemoteStream(String remotePath) throws Exception {
-        Session session = createSession();
-        ChannelSftp sftp = openSftp(session);
-        try {
-            SftpATTRS attrs = sftp.lstat(remotePath);
-            InputStream in = sftp.get(remotePath);
-            return new RemoteStream(in, attrs.getSize(), sftp, session);
-        } catch (Exception e) {
-            sftp.disconnect();
-            session.disconnect();
-            throw e;
-        }
+    /** Storage reads below go through the {@link StorageLimiter} and may be refused when storage is overloaded. */
+    public StorageResource getRemoteStream(String remotePath) throws Exception {
+        return limiter.open(true, () -> contentCache.get(remotePath));
     }
 
-    public static class RemoteStream extends InputStreamResource {
-        private final long length;
-        private final ChannelSftp sftp;
-        private final Session session;
-        public RemoteStream(InputStream inputStream, long length, ChannelSftp sftp, Session session) {
-            super(inputStream);
-            this.length = length;
-            this.sftp = sftp;
-            this.session = session;
-        }
-        public long length() { return length; }
-        public void close() {
-            try { super.getInputStream().close(); } catch (Exception ignore) {}
-            try { sftp.disconnect(); } catch (Exception ignore) {}
-            try { session.disconnect(); } catch (Exception ignore) {}
-        }
+    public StorageResource openStored(File file) throws Exception {
+        return openStored(file, true);
     }
 
-    public String buildRemoteDirFor(int poolId, int userId) {
-        return sftpConfig.normalizedBaseDir() + "/pool" + poolId + "/user" + userId;
+    /**
+     * Opens the stored bytes of a file. The length comes from the row when it is known, which saves
+     * a metadata round trip before the first byte; {@link StoredMetadataVerifier} keeps it honest.
+     * {@code shed} is false for reads that belong to work already under way, such as the next entry
+     * of an archive being written, which are measured but never refused.
+     */
+    public StorageResource openStored(File file, boolean shed) throws Exception {
+        return limiter.open(shed, () -> cached(file));
     }
 
-    public void uploadFileToPoolUser(int poolId, int userId, MultipartFile file) throws Exception {
-        String remoteDir = buildRemoteDirFor(poolId, userId);
-        String filename = sanitizeFilename(file.getOriginalFilename());
-        uploadToDir(remoteDir, filename, file.getInputStream());
+    /**
+     * Opens the stored bytes of a file for a transfer admitted with {@code ticket}. Large objects
+     * the cache does not keep are fetched over several channels when parallel fetch is on, but
+     * every extra channel takes a slot of the ticket, under its user and pool caps, and a limiter
+     * slot; it is only used when both have room. The choice is made from the stored length, so a
+     * parallel fetch never starts a cache spool it would abandon after the first chunk.
+     */
+    public StorageResource openStored(File file, TransferScheduler.Ticket ticket) throws Exception {
+        Long size = file.getStoredSize();
+        if (size == null || contentCache.keeps(size) || !parallelFetcher.accepts(size)) return openStored(file, true);
+        return limiter.open(true, () -> {
+            String path = file.getPath();
+            int extra = ticket.widen(Math.min(parallelFetcher.parallelism() - 1, limiter.headroom()));
+            if (extra == 0) return storage.open(path, size);
+            return parallelFetcher.wrap(path, size, storage.get(path, 0, parallelFetcher.firstChunk(size)), 1 + extra,
+                    (offset, length) -> limiter.open(false, () -> storage.get(path, offset, length)));
+        });
     }
 
-    private Session getSession() throws JSchException {
-        Session s = sessionPool.poll();
-        if (s != null && s.isConnected()) return s;
-        if (s != null) s.disconnect();
-        JSch j = new JSch();
-        j.addIdentity(sftpConfig.getPrivateKeyPath());
-        Session sess = j.getSession(sftpConfig.getUsername(), sftpConfig.getHost(), sftpConfig.getPort());
-        sess.setConfig("StrictHostKeyChecking", "no");
-        sess.setConfig("compression.s2c", "none");
-        sess.setConfig("compression.c2s", "none");
-        sess.connect();
-        return sess;
+    private StorageResource cached(File file) throws IOException {
+        return file.getStoredSize() == null
+                ? contentCache.get(file.getPath())
+                : contentCache.get(file.getPath(), file.getStoredSize());
     }
 
-    private void returnSession(Session session) {
-        if (session != null && session.isConnected() && sessionPool.size() < MAX_POOL_SIZE) {
-            sessionPool.offer(session);
-        } else {
-            if (session != null) session.disconnect();
-        }
+    public StorageResource getRemoteRange(String remotePath, long offset, long length) throws Exception {
+        return limiter.open(true, () -> contentCache.getRange(remotePath, offset, length));
+    }
+
+    public StorageStat statRemote(String remotePath) throws Exception {
+        return limiter.call(true, () -> storage.stat(remotePath));
     }
 
     @Transactional
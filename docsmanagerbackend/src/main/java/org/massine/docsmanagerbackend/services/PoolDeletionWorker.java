@@ -0,0 +1,196 @@
+package org.massine.docsmanagerbackend.services;
+
+import jakarta.annotation.PreDestroy;
+import org.massine.docsmanagerbackend.config.SftpConfig;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.models.Pool;
+import org.massine.docsmanagerbackend.models.StorageUsage;
+import org.massine.docsmanagerbackend.models.UploadSession;
+import org.massine.docsmanagerbackend.repositories.AccessRepository;
+import org.massine.docsmanagerbackend.repositories.BlobRepository;
+import org.massine.docsmanagerbackend.repositories.FileRepository;
+import org.massine.docsmanagerbackend.repositories.PoolRepository;
+import org.massine.docsmanagerbackend.repositories.StorageUsageRepository;
+import org.massine.docsmanagerbackend.repositories.UploadSessionRepository;
+import org.massine.docsmanagerbackend.services.storage.ContentCache;
+import org.massine.docsmanagerbackend.services.storage.StorageBackend;
+import org.massine.docsmanagerbackend.services.storage.StorageStat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finishes the deletion of tombstoned pools: drops rows that raced in after the tombstone,
+ * purges blobs left without references, removes {@code <base>/pool<id>} with deletes spread
+ * over several pooled channels, and finally deletes the pool row. Every step is idempotent,
+ * so pools still tombstoned after a crash are simply picked up again.
+ */
+@Service
+public class PoolDeletionWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(PoolDeletionWorker.class);
+    private static final int PURGE_BATCH = 200;
+
+    private final PoolRepository poolRepository;
+    private final AccessRepository accessRepository;
+    private final FileRepository fileRepository;
+    private final BlobRepository blobRepository;
+    private final UploadSessionRepository uploadSessions;
+    private final StorageUsageRepository usageRepository;
+    private final ChunkedUploadService chunkedUploads;
+    private final BlobService blobService;
+    private final StorageBackend storage;
+    private final ContentCache contentCache;
+    private final SftpConfig sftpConfig;
+    private final StorageConfig.PoolDeletion settings;
+    private final TransactionTemplate tx;
+    private final ExecutorService coordinator;
+    private final ExecutorService deleters;
+    private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+
+    public PoolDeletionWorker(PoolRepository poolRepository, AccessRepository accessRepository,
+                              FileRepository fileRepository, BlobRepository blobRepository,
+                              UploadSessionRepository uploadSessions, StorageUsageRepository usageRepository,
+                              ChunkedUploadService chunkedUploads,
+                              BlobService blobService, StorageBackend storage, ContentCache contentCache,
+                              SftpConfig sftpConfig, StorageConfig storageConfig,
+                              PlatformTransactionManager transactionManager) {
+        this.poolRepository = poolRepository;
+        this.accessRepository = accessRepository;
+        this.fileRepository = fileRepository;
+        this.blobRepository = blobRepository;
+        this.uploadSessions = uploadSessions;
+        this.usageRepository = usageRepository;
+        this.chunkedUploads = chunkedUploads;
+        this.blobService = blobService;
+        this.storage = storage;
+        this.contentCache = contentCache;
+        this.sftpConfig = sftpConfig;
+        this.settings = storageConfig.getPoolDeletion();
+        this.tx = new TransactionTemplate(transactionManager);
+
+        this.coordinator = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "pool-deletion");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger seq = new AtomicInteger();
+        this.deleters = Executors.newFixedThreadPool(Math.max(1, settings.getParallelism()), r -> {
+            Thread t = new Thread(r, "pool-deletion-io-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Deletes the pool's accesses and files, drops the blob references they held and takes them
+     * off the usage counters, with one statement each. Joins the caller's transaction when there is one.
+     */
+    public int detachContent(int poolId) {
+        Integer files = tx.execute(status -> {
+            accessRepository.deleteAllByPoolId(poolId);
+            blobRepository.releasePoolReferences(poolId);
+            usageRepository.releasePoolFromUsers(poolId);
+            usageRepository.remove(StorageUsage.poolKey(poolId));
+            return fileRepository.deleteAllByPoolId(poolId);
+        });
+        return files == null ? 0 : files;
+    }
+
+    public void schedule(int poolId) {
+        if (!inFlight.add(poolId)) return;
+        coordinator.execute(() -> {
+            try {
+                finish(poolId);
+            } finally {
+                inFlight.remove(poolId);
+            }
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "PT5M", fixedDelayString = "${storage.pool-deletion.interval:PT5M}")
+    public void resume() {
+        for (Pool pool : poolRepository.findByDeletedAtIsNotNull()) {
+            schedule(pool.getId());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinator.shutdownNow();
+        deleters.shutdownNow();
+    }
+
+    private void finish(int poolId) {
+        try {
+            detachContent(poolId);
+            for (UploadSession s : uploadSessions.findByPoolId(poolId)) {
+                chunkedUploads.abort(s);
+            }
+            int purged;
+            do {
+                purged = blobService.purgeUnreferenced(PURGE_BATCH);
+            } while (purged == PURGE_BATCH);
+            String root = sftpConfig.normalizedBaseDir() + "/pool" + poolId;
+            removeTree(root);
+            tx.executeWithoutResult(status -> poolRepository.deleteById(poolId));
+            log.info("Pool id={} deleted, remote tree {} removed", poolId, root);
+        } catch (Exception e) {
+            log.warn("Pool id={} deletion incomplete, will retry", poolId, e);
+        }
+    }
+
+    private void removeTree(String dir) throws IOException {
+        List<StorageStat> entries = storage.list(dir);
+        int window = Math.max(1, settings.getParallelism()) * 32;
+        List<CompletableFuture<Void>> pending = new ArrayList<>(window);
+        for (StorageStat entry : entries) {
+            if (entry.directory()) {
+                removeTree(entry.key());
+                continue;
+            }
+            pending.add(CompletableFuture.runAsync(() -> delete(entry.key()), deleters));
+            if (pending.size() >= window) awaitAll(pending);
+        }
+        awaitAll(pending);
+        storage.deleteDirectory(dir);
+    }
+
+    private void delete(String key) {
+        try {
+            storage.delete(key);
+            contentCache.invalidate(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void awaitAll(List<CompletableFuture<Void>> pending) throws IOException {
+        try {
+            CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+            throw e;
+        } finally {
+            pending.clear();
+        }
+    }
+}
@@ -4,10 +4,12 @@ import org.massine.docsmanagerbackend.models.Pool;
 import org.massine.docsmanagerbackend.models.Access;
 import org.massine.docsmanagerbackend.repositories.PoolRepository;
 import org.massine.docsmanagerbackend.repositories.AccessRepository;
-import org.massine.docsmanagerbackend.repositories.FileRepository;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -15,41 +17,50 @@ import java.util.stream.Collectors;
 public class PoolService {
     private final PoolRepository poolRepository;
     private final AccessRepository accessRepository;
-    private final FileRepository fileRepository;
+    private final PoolDeletionWorker poolDeletionWorker;
 
-    public PoolService(PoolRepository poolRepository, AccessRepository accessRepository, FileRepository fileRepository) {
+    public PoolService(PoolRepository poolRepository, AccessRepository accessRepository,
+                       PoolDeletionWorker poolDeletionWorker) {
         this.poolRepository = poolRepository;
         this.accessRepository = accessRepository;
-        this.fileRepository = fileRepository;
+        this.poolDeletionWorker = poolDeletionWorker;
     }
 
     public List<Pool> getAllPools() {
-        return poolRepository.findAll();
+        return poolRepository.findByDeletedAtIsNull();
     }
 
     public long getPoolsCount() {
-        return poolRepository.count();
+        return poolRepository.countByDeletedAtIsNull();
     }
 
     public Pool getPoolById(int id) {
-        return poolRepository.findById(id);
+        return poolRepository.findByIdAndDeletedAtIsNull(id);
     }
     public Pool savePool(Pool pool) {
         return poolRepository.save(pool);
     }
 
+    /**
+     * Tombstones the pool and removes its accesses and files with set-based statements. The remote
+     * tree and the pool row are removed in the background by {@link PoolDeletionWorker}.
+     */
     @Transactional
     public void deletePoolById(int id) {
-        accessRepository.findByPoolId(id).forEach(access -> accessRepository.delete(access));
-
-        fileRepository.findByPoolId(id).forEach(file -> fileRepository.delete(file));
-
-        poolRepository.deleteById(id);
+        if (poolRepository.tombstone(id, Instant.now()) == 0) return;
+        poolDeletionWorker.detachContent(id);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                poolDeletionWorker.schedule(id);
+            }
+        });
     }
     public Pool updatePool(int id,Pool pool) {
         Pool modifiedPool = poolRepository.findById(id);
         modifiedPool.setName(pool.getName());
         modifiedPool.setDescription(pool.getDescription());
+        modifiedPool.setCacheMaxAge(pool.getCacheMaxAge() == null ? null : Math.max(0, pool.getCacheMaxAge()));
         return poolRepository.save(modifiedPool);
     }
 
@@ -0,0 +1,337 @@
+package org.massine.docsmanagerbackend.services;
+
+import jakarta.annotation.PreDestroy;
+import org.massine.docsmanagerbackend.config.SftpConfig;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.models.Blob;
+import org.massine.docsmanagerbackend.models.File;
+import org.massine.docsmanagerbackend.repositories.BlobRepository;
+import org.massine.docsmanagerbackend.repositories.FileRepository;
+import org.massine.docsmanagerbackend.services.storage.ContentCache;
+import org.massine.docsmanagerbackend.services.storage.StorageBackend;
+import org.massine.docsmanagerbackend.services.storage.StorageStat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Compares the storage tree under the base directory with the paths referenced from the
+ * {@code file} and {@code content_blob} tables. The tree is walked depth-first in binary key
+ * order while upcoming directory listings are fetched in parallel over separate channels, and
+ * the referenced paths are streamed from the database in the same order, so a run is a single
+ * merge pass whose memory is bounded by directory size and {@code storage.reconciliation.max-findings}.
+ * Objects and rows younger than {@code storage.reconciliation.grace} are left alone.
+ */
+@Service
+public class ReconciliationService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReconciliationService.class);
+    private static final Pattern RENDITION = Pattern.compile("(.+)\\.thumb-\\d+\\.jpg");
+
+    public record Report(Instant startedAt, Instant finishedAt, boolean repair, long objectsScanned,
+                         long bytesScanned, long referencesScanned, long orphanCount, long orphanBytes,
+                         long danglingCount, List<String> orphans, List<String> dangling,
+                         int repairedObjects, int repairedRows, boolean truncated, String error) {}
+
+    private final StorageBackend storage;
+    private final ContentCache contentCache;
+    private final FileRepository fileRepository;
+    private final BlobRepository blobRepository;
+    private final FileService fileService;
+    private final SftpConfig sftpConfig;
+    private final StorageConfig.Reconciliation settings;
+    private final TransactionTemplate readOnlyTx;
+    private final TransactionTemplate tx;
+    private final ExecutorService listings;
+    private final ExecutorService runner;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Report lastReport;
+
+    public ReconciliationService(StorageBackend storage, ContentCache contentCache, FileRepository fileRepository,
+                                 BlobRepository blobRepository, FileService fileService, SftpConfig sftpConfig,
+                                 StorageConfig storageConfig, PlatformTransactionManager transactionManager) {
+        this.storage = storage;
+        this.contentCache = contentCache;
+        this.fileRepository = fileRepository;
+        this.blobRepository = blobRepository;
+        this.fileService = fileService;
+        this.sftpConfig = sftpConfig;
+        this.settings = storageConfig.getReconciliation();
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+        this.tx = new TransactionTemplate(transactionManager);
+
+        AtomicInteger seq = new AtomicInteger();
+        this.listings = Executors.newFixedThreadPool(Math.max(1, settings.getParallelism()), r -> {
+            Thread t = new Thread(r, "reconcile-list-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.runner = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "reconcile");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public Report lastReport() { return lastReport; }
+
+    /** Starts a run in the background; returns {@code false} when one is already in progress. */
+    public boolean start(boolean repair) {
+        if (!running.compareAndSet(false, true)) return false;
+        runner.execute(() -> {
+            try {
+                lastReport = reconcile(repair);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    @Scheduled(initialDelayString = "PT10M", fixedDelayString = "${storage.reconciliation.interval:P1D}")
+    public void scheduled() {
+        if (settings.isEnabled()) start(settings.isRepair());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+        listings.shutdownNow();
+    }
+
+    private Report reconcile(boolean repair) {
+        Instant startedAt = Instant.now();
+        Instant cutoff = startedAt.minus(settings.getGrace());
+        Scan scan = new Scan(cutoff, Math.max(1, settings.getMaxFindings()));
+        String error = null;
+        try {
+            readOnlyTx.executeWithoutResult(status -> {
+                try (Stream<String> referenced = fileRepository.streamReferencedPaths(cutoff)) {
+                    scan.merge(referenced.iterator(), sftpConfig.normalizedBaseDir());
+                }
+            });
+        } catch (RuntimeException e) {
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            log.error("Reconciliation aborted; no repairs made", e);
+        }
+
+        int repairedObjects = 0;
+        int repairedRows = 0;
+        if (repair && error == null) {
+            for (String key : scan.orphans) if (repairOrphan(key)) repairedObjects++;
+            for (String path : scan.dangling) repairedRows += repairDangling(path);
+        }
+        Report report = new Report(startedAt, Instant.now(), repair, scan.objects, scan.bytes, scan.references,
+                scan.orphanCount, scan.orphanBytes, scan.danglingCount, List.copyOf(scan.orphans),
+                List.copyOf(scan.dangling), repairedObjects, repairedRows, scan.truncated, error);
+        log.info("Reconciliation done objects={} references={} orphans={} ({} bytes) dangling={} repairedObjects={} repairedRows={}",
+                report.objectsScanned(), report.referencesScanned(), report.orphanCount(), report.orphanBytes(),
+                report.danglingCount(), repairedObjects, repairedRows);
+        return report;
+    }
+
+    /** Deletes an unreferenced object after checking again that nothing points at it. */
+    private boolean repairOrphan(String key) {
+        try {
+            Matcher m = RENDITION.matcher(key);
+            String owner = m.matches() ? m.group(1) : key;
+            if (fileRepository.existsByPath(owner) || blobRepository.existsByPath(owner)) return false;
+            storage.delete(key);
+            contentCache.invalidate(key);
+            return true;
+        } catch (Exception e) {
+            log.warn("Could not remove orphaned object key={}", key, e);
+            return false;
+        }
+    }
+
+    /** Drops rows whose object is gone, after checking again that it really is. */
+    private int repairDangling(String path) {
+        try {
+            if (storage.stat(path) != null) return 0;
+            int removed = 0;
+            for (File file : fileRepository.findByPath(path)) {
+                fileService.deleteFileAndContent(file);
+                removed++;
+            }
+            Blob leftover = blobRepository.findByPath(path).orElse(null);
+            if (leftover != null) {
+                tx.executeWithoutResult(status -> blobRepository.deleteById(leftover.getHash()));
+                removed++;
+            }
+            return removed;
+        } catch (Exception e) {
+            log.warn("Could not remove dangling rows path={}", path, e);
+            return 0;
+        }
+    }
+
+    /** Orders keys by code point, which is the byte order of their UTF-8 form and of {@code utf8mb4_bin}. */
+    static int compareKeys(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) return Integer.compare(ca, cb);
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    private static String nameOf(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    private final class Scan {
+        private final Instant cutoff;
+        private final int maxFindings;
+        private final Set<String> excluded = new HashSet<>(settings.getExcludedDirectories());
+        private final int lookahead = Math.max(2, settings.getParallelism() * 2);
+
+        private final List<String> orphans = new ArrayList<>();
+        private final List<String> dangling = new ArrayList<>();
+        private long objects;
+        private long bytes;
+        private long references;
+        private long orphanCount;
+        private long orphanBytes;
+        private long danglingCount;
+        private boolean truncated;
+
+        private Iterator<String> refs;
+        private String ref;
+
+        private Scan(Instant cutoff, int maxFindings) {
+            this.cutoff = cutoff;
+            this.maxFindings = maxFindings;
+        }
+
+        void merge(Iterator<String> referenced, String baseDir) {
+            refs = referenced;
+            advance();
+            walk(baseDir, list(baseDir));
+            while (ref != null) {
+                dangling(ref);
+                advance();
+            }
+        }
+
+        private void walk(String dir, CompletableFuture<List<StorageStat>> listing) {
+            List<StorageStat> entries = new ArrayList<>(await(listing, dir));
+            entries.sort(Comparator.comparing(ReconciliationService::sortName, ReconciliationService::compareKeys));
+
+            List<StorageStat> subdirs = entries.stream()
+                    .filter(e -> e.directory() && !excluded.contains(nameOf(e.key())))
+                    .toList();
+            Map<String, CompletableFuture<List<StorageStat>>> prefetched = new HashMap<>();
+            int nextPrefetch = 0;
+            Set<String> referencedHere = new HashSet<>();
+
+            for (StorageStat entry : entries) {
+                if (entry.directory()) {
+                    if (excluded.contains(nameOf(entry.key()))) continue;
+                    while (nextPrefetch < subdirs.size() && prefetched.size() < lookahead) {
+                        String next = subdirs.get(nextPrefetch++).key();
+                        prefetched.put(next, list(next));
+                    }
+                    CompletableFuture<List<StorageStat>> own = prefetched.remove(entry.key());
+                    walk(entry.key(), own != null ? own : list(entry.key()));
+                } else {
+                    visit(entry, referencedHere);
+                }
+            }
+        }
+
+        private void visit(StorageStat object, Set<String> referencedHere) {
+            String key = object.key();
+            objects++;
+            bytes += Math.max(0, object.size());
+            while (ref != null && compareKeys(ref, key) < 0) {
+                dangling(ref);
+                advance();
+            }
+            if (ref != null && ref.equals(key)) {
+                referencedHere.add(nameOf(key));
+                advance();
+                return;
+            }
+            Matcher m = RENDITION.matcher(nameOf(key));
+            if (m.matches() && referencedHere.contains(m.group(1))) return;
+            if (object.modifiedAt() != null && object.modifiedAt().isAfter(cutoff)) return;
+            orphanCount++;
+            orphanBytes += Math.max(0, object.size());
+            record(orphans, key);
+        }
+
+        private void dangling(String path) {
+            danglingCount++;
+            record(dangling, path);
+        }
+
+        private void record(List<String> findings, String key) {
+            if (orphans.size() + dangling.size() < maxFindings) findings.add(key);
+            else truncated = true;
+        }
+
+        private void advance() {
+            String previous = ref;
+            ref = refs.hasNext() ? refs.next() : null;
+            if (ref == null) return;
+            references++;
+            if (previous != null && compareKeys(previous, ref) > 0) {
+                throw new IllegalStateException("Referenced paths are not in binary order near " + ref);
+            }
+        }
+
+        private CompletableFuture<List<StorageStat>> list(String dir) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return storage.list(dir);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, listings);
+        }
+
+        private List<StorageStat> await(CompletableFuture<List<StorageStat>> listing, String dir) {
+            try {
+                return listing.join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Listing failed dir=" + dir, e.getCause());
+            }
+        }
+    }
+
+    /** Directories sort as if their name ended with '/', matching the order of the full keys beneath them. */
+    private static String sortName(StorageStat stat) {
+        String name = nameOf(stat.key());
+        return stat.directory() ? name + "/" : name;
+    }
+}
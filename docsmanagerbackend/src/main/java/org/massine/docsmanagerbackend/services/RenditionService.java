@@ -0,0 +1,273 @@
+package org.massine.docsmanagerbackend.services;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.models.File;
+import org.massine.docsmanagerbackend.repositories.FileRepository;
+import org.massine.docsmanagerbackend.services.storage.ContentCache;
+import org.massine.docsmanagerbackend.services.storage.StorageBackend;
+import org.massine.docsmanagerbackend.services.storage.StorageResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates small JPEG renditions (image thumbnails, first page of PDFs) in the background and
+ * stores them beside the original under {@code <content key>.thumb-<size>.jpg}. Renditions follow
+ * the content rather than the file row, so deduplicated files share them. A file whose
+ * {@code renditionState} is still {@code null} has not been rendered yet.
+ */
+@Service
+public class RenditionService {
+
+    private static final Logger log = LoggerFactory.getLogger(RenditionService.class);
+
+    public static final String READY = "READY";
+    public static final String FAILED = "FAILED";
+    public static final String UNSUPPORTED = "UNSUPPORTED";
+
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "bmp");
+    private static final String PDF_EXTENSION = "pdf";
+
+    private final FileRepository fileRepository;
+    private final FileService fileService;
+    private final StorageBackend storage;
+    private final ContentCache contentCache;
+    private final StorageConfig.Renditions settings;
+    private final TransactionTemplate tx;
+    private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor workers;
+
+    public RenditionService(FileRepository fileRepository, FileService fileService, StorageBackend storage,
+                            ContentCache contentCache, StorageConfig storageConfig,
+                            PlatformTransactionManager transactionManager) {
+        this.fileRepository = fileRepository;
+        this.fileService = fileService;
+        this.storage = storage;
+        this.contentCache = contentCache;
+        this.settings = storageConfig.getRenditions();
+        this.tx = new TransactionTemplate(transactionManager);
+
+        AtomicInteger seq = new AtomicInteger();
+        int threads = Math.max(1, settings.getWorkers());
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, settings.getQueueCapacity())), r -> {
+                    Thread t = new Thread(r, "rendition-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                });
+    }
+
+    public static String keyFor(String contentKey, int size) {
+        return contentKey + ".thumb-" + size + ".jpg";
+    }
+
+    /** Keys of every rendition that may exist for {@code contentKey}, for cleanup together with the content. */
+    public static List<String> keysFor(String contentKey, StorageConfig.Renditions settings) {
+        return settings.getSizes().stream().map(size -> keyFor(contentKey, size)).toList();
+    }
+
+    public static boolean supports(String filename) {
+        String ext = extension(filename);
+        return ext != null && (IMAGE_EXTENSIONS.contains(ext) || PDF_EXTENSION.equals(ext));
+    }
+
+    /** Smallest configured size covering {@code requested}, or the largest one. */
+    public int snapSize(int requested) {
+        return settings.getSizes().stream().sorted()
+                .filter(size -> size >= requested)
+                .findFirst()
+                .orElseGet(this::largestSize);
+    }
+
+    /** Queues rendering unless it is already done, running, or not applicable. Never blocks the caller. */
+    public void schedule(File file) {
+        if (!settings.isEnabled() || file == null || file.getId() == null || file.getRenditionState() != null) return;
+        int id = file.getId();
+        if (!inFlight.add(id)) return;
+        try {
+            workers.execute(() -> {
+                try {
+                    generate(id);
+                } finally {
+                    inFlight.remove(id);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(id);
+            log.debug("Rendition queue full, skipping file id={}", id);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private void generate(int fileId) {
+        File file = fileRepository.findById(fileId).orElse(null);
+        if (file == null || file.getPath() == null || file.getRenditionState() != null) return;
+        String path = file.getPath();
+        if (!supports(file.getName())) {
+            mark(fileId, path, UNSUPPORTED);
+            return;
+        }
+        try {
+            List<Integer> sizes = settings.getSizes().stream().sorted(Comparator.reverseOrder()).toList();
+            if (storage.stat(keyFor(path, sizes.get(sizes.size() - 1))) != null) {
+                mark(fileId, path, READY);
+                return;
+            }
+            BufferedImage current = render(file, sizes.get(0));
+            if (current == null) {
+                mark(fileId, path, UNSUPPORTED);
+                return;
+            }
+            for (int size : sizes) {
+                current = fit(current, size);
+                String key = keyFor(path, size);
+                storage.put(key, new ByteArrayInputStream(encodeJpeg(current)));
+                contentCache.invalidate(key);
+            }
+            mark(fileId, path, READY);
+        } catch (Exception | OutOfMemoryError e) {
+            log.warn("Rendition failed file id={} path={}", fileId, path, e);
+            mark(fileId, path, FAILED);
+        }
+    }
+
+    private BufferedImage render(File file, int target) throws IOException {
+        try (StorageResource rs = storage.get(file.getPath())) {
+            if (rs.length() > settings.getMaxSourceSize().toBytes()) return null;
+            try (InputStream in = fileService.decode(file, rs.getInputStream())) {
+                return PDF_EXTENSION.equals(extension(file.getName())) ? renderPdf(in, target) : readImage(in, target);
+            }
+        }
+    }
+
+    /** Decodes with source subsampling so that large photos never materialize at full resolution. */
+    private static BufferedImage readImage(InputStream in, int target) throws IOException {
+        try (ImageInputStream iis = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int step = Math.max(1, longest / (target * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage renderPdf(InputStream in, int target) throws IOException {
+        Path spool = Files.createTempFile("rendition-", ".pdf");
+        try {
+            Files.copy(in, spool, StandardCopyOption.REPLACE_EXISTING);
+            try (PDDocument doc = Loader.loadPDF(spool.toFile())) {
+                if (doc.getNumberOfPages() == 0) return null;
+                PDRectangle box = doc.getPage(0).getCropBox();
+                float scale = target / Math.max(box.getWidth(), box.getHeight());
+                return new PDFRenderer(doc).renderImage(0, scale, ImageType.RGB);
+            }
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    /** Scales down to fit in a {@code size} square on a white background; never scales up. */
+    private static BufferedImage fit(BufferedImage src, int size) {
+        double ratio = Math.min(1.0, (double) size / Math.max(src.getWidth(), src.getHeight()));
+        int w = Math.max(1, (int) Math.round(src.getWidth() * ratio));
+        int h = Math.max(1, (int) Math.round(src.getHeight() * ratio));
+        if (ratio == 1.0 && src.getType() == BufferedImage.TYPE_INT_RGB) return src;
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(src, 0, 0, w, h, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 * 1024);
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(buffer)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(settings.getQuality());
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return buffer.toByteArray();
+    }
+
+    private void mark(int fileId, String path, String state) {
+        try {
+            tx.executeWithoutResult(status -> fileRepository.updateRenditionState(fileId, path, state));
+        } catch (RuntimeException e) {
+            log.warn("Could not record rendition state file id={} state={}", fileId, state, e);
+        }
+    }
+
+    private int largestSize() {
+        return settings.getSizes().stream().max(Integer::compare).orElse(256);
+    }
+
+    private static String extension(String filename) {
+        if (filename == null) return null;
+        int dot = filename.lastIndexOf('.');
+        return dot > 0 ? filename.substring(dot + 1).toLowerCase(Locale.ROOT) : null;
+    }
+}
@@ -0,0 +1,129 @@
+package org.massine.docsmanagerbackend.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.exceptions.StorageOverloadedException;
+import org.massine.docsmanagerbackend.services.storage.StorageResource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive cap on concurrent storage reads made through {@link FileService} (AIMD). A read holds
+ * its slot until the stream it opened is closed, whether it is served by SFTP or by the cache.
+ * The time to open it, waiting for an SFTP channel included, is a latency sample. A sample slower than
+ * {@code storage.limiter.latency-threshold}, or a call failing because storage is unreachable,
+ * multiplies the limit by {@code backoff-ratio}, at most once per threshold so one slow burst
+ * counts once. Otherwise the limit grows by about one per limit's worth of samples, as long as at
+ * least half of it is in use. Calls past the limit are refused at once with
+ * {@link StorageOverloadedException} instead of queueing inside JSch.
+ */
+@Service
+public class StorageLimiter {
+
+    @FunctionalInterface
+    public interface StorageCall<T> {
+        T call() throws Exception;
+    }
+
+    private final StorageConfig.Limiter settings;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Timer latency;
+    private final Counter rejected;
+    private final long thresholdNanos;
+    private volatile double limit;
+    private long lastBackoff;
+
+    public StorageLimiter(StorageConfig storageConfig, MeterRegistry registry) {
+        this.settings = storageConfig.getLimiter();
+        this.thresholdNanos = settings.getLatencyThreshold().toNanos();
+        this.limit = Math.max(settings.getMinLimit(), Math.min(settings.getMaxLimit(), settings.getInitialLimit()));
+        this.lastBackoff = System.nanoTime() - thresholdNanos;
+        this.latency = Timer.builder("docsmanager.storage.limiter.latency").register(registry);
+        this.rejected = Counter.builder("docsmanager.storage.limiter.rejected").register(registry);
+        Gauge.builder("docsmanager.storage.limiter.limit", this, StorageLimiter::limit).register(registry);
+        Gauge.builder("docsmanager.storage.limiter.inflight", inFlight, AtomicInteger::get).register(registry);
+    }
+
+    /**
+     * Runs a storage call under the limit. With {@code shed} false the call is let through even
+     * past the limit, for reads that belong to work already under way; it is still measured.
+     */
+    public <T> T call(boolean shed, StorageCall<T> op) throws Exception {
+        if (!settings.isEnabled()) return op.call();
+        acquire(shed);
+        try {
+            return measure(op);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /** Like {@link #call}, but the slot stays taken until the opened resource, or its stream, is closed. */
+    public StorageResource open(boolean shed, StorageCall<StorageResource> op) throws Exception {
+        if (!settings.isEnabled()) return op.call();
+        acquire(shed);
+        StorageResource rs;
+        try {
+            rs = measure(op);
+        } catch (Exception | Error e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+        return rs.onClose(inFlight::decrementAndGet);
+    }
+
+    public int limit() {
+        return (int) limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /** How many more reads would be let through right now. */
+    public int headroom() {
+        return settings.isEnabled() ? Math.max(0, limit() - inFlight.get()) : Integer.MAX_VALUE;
+    }
+
+    private void acquire(boolean shed) {
+        int current = inFlight.incrementAndGet();
+        if (shed && current > limit()) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            throw new StorageOverloadedException(limit(), Math.max(1, settings.getRetryAfter().toSeconds()));
+        }
+    }
+
+    private <T> T measure(StorageCall<T> op) throws Exception {
+        long startedAt = System.nanoTime();
+        boolean unavailable = false;
+        try {
+            return op.call();
+        } catch (IOException e) {
+            unavailable = e.getMessage() != null && e.getMessage().startsWith("SFTP_UNAVAILABLE");
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - startedAt;
+            latency.record(elapsed, TimeUnit.NANOSECONDS);
+            onSample(elapsed, inFlight.get(), unavailable);
+        }
+    }
+
+    private synchronized void onSample(long elapsed, int inFlightNow, boolean unavailable) {
+        long now = System.nanoTime();
+        if (unavailable || elapsed > thresholdNanos) {
+            if (now - lastBackoff >= thresholdNanos) {
+                limit = Math.max(settings.getMinLimit(), limit * settings.getBackoffRatio());
+                lastBackoff = now;
+            }
+        } else if (inFlightNow * 2 >= limit) {
+            limit = Math.min(settings.getMaxLimit(), limit + 1.0 / limit);
+        }
+    }
+}
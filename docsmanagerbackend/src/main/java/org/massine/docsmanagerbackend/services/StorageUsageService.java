@@ -0,0 +1,68 @@
+package org.massine.docsmanagerbackend.services;
+
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.exceptions.QuotaExceededException;
+import org.massine.docsmanagerbackend.models.StorageUsage;
+import org.massine.docsmanagerbackend.repositories.StorageUsageRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Per-pool and per-user usage counters and the quotas checked against them. Sizes are logical:
+ * a deduplicated file still counts in full for the pool and the user that hold it.
+ */
+@Service
+public class StorageUsageService {
+
+    public record Usage(long bytes, long files) {}
+
+    private final StorageUsageRepository usageRepository;
+    private final StorageConfig.Quota quota;
+
+    public StorageUsageService(StorageUsageRepository usageRepository, StorageConfig storageConfig) {
+        this.usageRepository = usageRepository;
+        this.quota = storageConfig.getQuota();
+    }
+
+    /** Adjusts both counters; joins the transaction that changes the file rows. */
+    @Transactional
+    public void add(int poolId, int userId, long bytes, long files) {
+        if (bytes == 0 && files == 0) return;
+        usageRepository.add(StorageUsage.poolKey(poolId), bytes, files);
+        usageRepository.add(StorageUsage.userKey(userId), bytes, files);
+    }
+
+    /** Throws {@link QuotaExceededException} when {@code additionalBytes} more would not fit. */
+    public void checkQuota(int poolId, int userId, long additionalBytes) {
+        check("pool", quota.getPoolMaxSize(), poolUsage(poolId).bytes(), additionalBytes);
+        check("user", quota.getUserMaxSize(), userUsage(userId).bytes(), additionalBytes);
+    }
+
+    public Usage poolUsage(int poolId) { return usage(StorageUsage.poolKey(poolId)); }
+
+    public Usage userUsage(int userId) { return usage(StorageUsage.userKey(userId)); }
+
+    public Long poolQuotaBytes() { return quota.getPoolMaxSize() == null ? null : quota.getPoolMaxSize().toBytes(); }
+
+    /** Rebuilds every counter from the file table. */
+    @Transactional
+    public void recalculate() {
+        usageRepository.clear();
+        usageRepository.rebuildPools();
+        usageRepository.rebuildUsers();
+    }
+
+    private Usage usage(String key) {
+        return usageRepository.findById(key)
+                .map(u -> new Usage(u.getBytes(), u.getFiles()))
+                .orElse(new Usage(0, 0));
+    }
+
+    private static void check(String scope, DataSize limit, long used, long additional) {
+        if (limit == null || limit.toBytes() <= 0) return;
+        if (used + Math.max(0, additional) > limit.toBytes()) {
+            throw new QuotaExceededException(scope, limit.toBytes(), used);
+        }
+    }
+}
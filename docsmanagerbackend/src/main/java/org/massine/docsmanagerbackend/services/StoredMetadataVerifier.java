@@ -0,0 +1,125 @@
+package org.massine.docsmanagerbackend.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.repositories.FileRepository;
+import org.massine.docsmanagerbackend.repositories.FileRepository.StoredMetadata;
+import org.massine.docsmanagerbackend.services.storage.ContentCache;
+import org.massine.docsmanagerbackend.services.storage.StorageBackend;
+import org.massine.docsmanagerbackend.services.storage.StorageStat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Downloads trust the size and modification time stored on the file row instead of asking
+ * storage. This walks the file table in id order, a slice per run, comparing those values with
+ * what storage reports: rows written before they were recorded are backfilled, and drift is
+ * logged, counted and corrected. Remote lookups are paced to
+ * {@code storage.metadata-verifier.stats-per-second}.
+ */
+@Service
+public class StoredMetadataVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(StoredMetadataVerifier.class);
+
+    private final FileRepository fileRepository;
+    private final FileService fileService;
+    private final StorageBackend storage;
+    private final ContentCache contentCache;
+    private final StorageUsageService storageUsage;
+    private final StorageConfig.MetadataVerifier settings;
+    private final TransactionTemplate tx;
+    private final Counter backfilled;
+    private final Counter drifted;
+    private int afterId;
+
+    public StoredMetadataVerifier(FileRepository fileRepository, FileService fileService, StorageBackend storage, ContentCache contentCache,
+                                  StorageUsageService storageUsage, StorageConfig storageConfig,
+                                  PlatformTransactionManager transactionManager, MeterRegistry registry) {
+        this.fileRepository = fileRepository;
+        this.fileService = fileService;
+        this.storage = storage;
+        this.contentCache = contentCache;
+        this.storageUsage = storageUsage;
+        this.settings = storageConfig.getMetadataVerifier();
+        this.tx = new TransactionTemplate(transactionManager);
+        this.backfilled = Counter.builder("docsmanager.metadata.backfilled").register(registry);
+        this.drifted = Counter.builder("docsmanager.metadata.drift").register(registry);
+    }
+
+    @Scheduled(initialDelayString = "PT2M", fixedDelayString = "${storage.metadata-verifier.interval:PT1H}")
+    public void verify() {
+        if (!settings.isEnabled()) return;
+        int batchSize = Math.max(1, settings.getBatchSize());
+        long pauseNanos = settings.getStatsPerSecond() > 0
+                ? TimeUnit.SECONDS.toNanos(1) / settings.getStatsPerSecond() : 0L;
+
+        int checked = 0;
+        while (checked < settings.getMaxFilesPerRun()) {
+            int limit = Math.min(batchSize, settings.getMaxFilesPerRun() - checked);
+            List<StoredMetadata> batch = fileRepository.findStoredMetadata(afterId, PageRequest.of(0, limit));
+            if (batch.isEmpty()) {
+                afterId = 0;
+                break;
+            }
+            for (StoredMetadata row : batch) {
+                long startedAt = System.nanoTime();
+                try {
+                    check(row);
+                } catch (Exception e) {
+                    log.warn("Could not verify stored metadata id={} path={}", row.getId(), row.getPath(), e);
+                }
+                afterId = row.getId();
+                long remaining = pauseNanos - (System.nanoTime() - startedAt);
+                if (remaining > 0) LockSupport.parkNanos(remaining);
+            }
+            checked += batch.size();
+        }
+        if (checked > 0) log.debug("Verified stored metadata of {} files, next after id={}", checked, afterId);
+    }
+
+    private void check(StoredMetadata row) throws Exception {
+        StorageStat stat = storage.stat(row.getPath());
+        if (stat == null) return; // dangling rows are the reconciliation's business
+
+        boolean drift = row.getStoredSize() != null && row.getStoredSize() != stat.size();
+        Long size = row.getContentEncoding() == null ? Long.valueOf(stat.size()) : row.getSize();
+        String contentType = row.getContentType() != null ? row.getContentType()
+                : fileService.detectStoredType(row.getPath(), row.getContentEncoding(), stat.size(), row.getName());
+        Instant modifiedAt = drift || row.getContentModifiedAt() == null ? stat.modifiedAt() : row.getContentModifiedAt();
+
+        if (!drift && row.getStoredSize() != null && Objects.equals(size, row.getSize())
+                && Objects.equals(contentType, row.getContentType()) && Objects.equals(modifiedAt, row.getContentModifiedAt())) {
+            return;
+        }
+        if (drift) {
+            log.warn("Stored size drift id={} path={} recorded={} actual={}",
+                    row.getId(), row.getPath(), row.getStoredSize(), stat.size());
+            contentCache.invalidate(row.getPath());
+            drifted.increment();
+        } else {
+            backfilled.increment();
+        }
+
+        long delta = (size == null ? 0L : size) - (row.getSize() == null ? 0L : row.getSize());
+        tx.executeWithoutResult(status -> {
+            int updated = fileRepository.updateStoredMetadata(row.getId(), row.getPath(), size, stat.size(),
+                    contentType, modifiedAt);
+            if (updated == 1 && delta != 0) {
+                storageUsage.add(row.getPoolId(), row.getUploaderId(), delta, 0);
+            }
+        });
+    }
+}
@@ -0,0 +1,348 @@
+package org.massine.docsmanagerbackend.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.massine.docsmanagerbackend.exceptions.TransferRejectedException;
+import org.massine.docsmanagerbackend.services.storage.StorageResource;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits downloads, previews and archives to storage with weighted fair sharing, so one user
+ * pulling a whole pool cannot hold every SFTP channel while others wait for a small preview.
+ * Transfers are sorted into lanes: small transfers of signed-in users, bulk transfers, and
+ * anonymous traffic on public pools. A free slot goes to the lane served least relative to its
+ * weight (stride scheduling), and within that lane to the waiter whose user holds the fewest
+ * slots, skipping users, pools and the public lane while they are at their own cap. Waiters
+ * queue for at most {@code storage.transfers.max-wait}; past that, or past
+ * {@code storage.transfers.max-queued}, they are turned away with {@link TransferRejectedException}.
+ */
+@Service
+public class TransferScheduler {
+
+    public enum Lane { INTERACTIVE, BULK, PUBLIC }
+
+    private final StorageConfig.Transfers settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final EnumMap<Lane, LaneState> lanes = new EnumMap<>(Lane.class);
+    private final Map<Integer, Integer> activeByUser = new HashMap<>();
+    private final Map<Integer, Integer> activeByPool = new HashMap<>();
+    private int active;
+    private int queued;
+    private double virtualTime;
+
+    public TransferScheduler(StorageConfig storageConfig, MeterRegistry registry) {
+        this.settings = storageConfig.getTransfers();
+        for (Lane lane : Lane.values()) {
+            LaneState state = new LaneState(weightOf(lane),
+                    Timer.builder("docsmanager.transfers.wait").tag("lane", tagOf(lane)).register(registry),
+                    Counter.builder("docsmanager.transfers.rejected").tag("lane", tagOf(lane)).register(registry));
+            lanes.put(lane, state);
+            Gauge.builder("docsmanager.transfers.active", state, s -> s.active).tag("lane", tagOf(lane)).register(registry);
+            Gauge.builder("docsmanager.transfers.queued", state, s -> s.waiting).tag("lane", tagOf(lane)).register(registry);
+        }
+    }
+
+    /** Anonymous traffic gets its own lane; the rest is split on how many bytes will be sent. */
+    public Lane laneFor(Integer userId, long bytes) {
+        if (userId == null) return Lane.PUBLIC;
+        return bytes >= 0 && bytes <= settings.getSmallTransferSize().toBytes() ? Lane.INTERACTIVE : Lane.BULK;
+    }
+
+    /** Blocks until the transfer may start. The ticket must be closed once it is done. */
+    public Ticket admit(Lane lane, Integer userId, Integer poolId) {
+        if (!settings.isEnabled()) return new Ticket(lane, userId, poolId, false);
+        LaneState state = lanes.get(lane);
+        long startedAt = System.nanoTime();
+        lock.lock();
+        try {
+            if (queued == 0 && eligible(lane, userId, poolId)) {
+                grant(lane, userId, poolId);
+                state.waitTime.record(0, TimeUnit.NANOSECONDS);
+                return new Ticket(lane, userId, poolId, true);
+            }
+            if (queued >= settings.getMaxQueued()) {
+                state.rejected.increment();
+                throw new TransferRejectedException("QUEUE_FULL", retryAfterSeconds());
+            }
+
+            Waiter waiter = new Waiter(lane, userId, poolId, lock.newCondition());
+            if (state.queue.isEmpty()) state.pass = Math.max(state.pass, virtualTime);
+            state.queue.addLast(waiter);
+            state.waiting++;
+            queued++;
+            dispatch();
+
+            long remaining = settings.getMaxWait().toNanos();
+            try {
+                while (!waiter.admitted && remaining > 0) {
+                    remaining = waiter.signal.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandon(waiter);
+                throw new TransferRejectedException("INTERRUPTED", retryAfterSeconds());
+            }
+            if (!waiter.admitted) {
+                abandon(waiter);
+                throw new TransferRejectedException("WAIT_TIMEOUT", retryAfterSeconds());
+            }
+            state.waitTime.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            return new Ticket(lane, userId, poolId, true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Current occupancy per lane, for operators. */
+    public Map<String, Object> snapshot() {
+        lock.lock();
+        try {
+            Map<String, Object> lanesOut = new LinkedHashMap<>();
+            for (Map.Entry<Lane, LaneState> e : lanes.entrySet()) {
+                lanesOut.put(tagOf(e.getKey()), Map.of("active", e.getValue().active, "queued", e.getValue().waiting,
+                        "weight", e.getValue().weight));
+            }
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("enabled", settings.isEnabled());
+            out.put("active", active);
+            out.put("queued", queued);
+            out.put("maxConcurrent", settings.getMaxConcurrent());
+            out.put("usersActive", activeByUser.size());
+            out.put("poolsActive", activeByPool.size());
+            out.put("lanes", lanesOut);
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Takes up to {@code slots} more slots for a ticket without waiting, and only while nobody is queued. */
+    private int widen(Ticket ticket, int slots) {
+        lock.lock();
+        try {
+            int granted = 0;
+            while (granted < slots && queued == 0 && eligible(ticket.lane, ticket.userId, ticket.poolId)) {
+                grant(ticket.lane, ticket.userId, ticket.poolId);
+                granted++;
+            }
+            return granted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Ticket ticket, int slots) {
+        lock.lock();
+        try {
+            for (int i = 0; i < slots; i++) {
+                active--;
+                lanes.get(ticket.lane).active--;
+                decrement(activeByUser, ticket.userId);
+                decrement(activeByPool, ticket.poolId);
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Hands free slots to waiters, lane with the lowest pass first. Called with the lock held. */
+    private void dispatch() {
+        while (active < settings.getMaxConcurrent() && queued > 0) {
+            LaneState best = null;
+            Waiter pick = null;
+            for (LaneState state : lanes.values()) {
+                if (best != null && state.pass >= best.pass) continue;
+                Waiter candidate = next(state);
+                if (candidate != null) {
+                    best = state;
+                    pick = candidate;
+                }
+            }
+            if (pick == null) return;
+
+            best.queue.remove(pick);
+            best.waiting--;
+            queued--;
+            virtualTime = best.pass;
+            best.pass += 1.0 / best.weight;
+            grant(pick.lane, pick.userId, pick.poolId);
+            pick.admitted = true;
+            pick.signal.signal();
+        }
+    }
+
+    /** The eligible waiter whose user holds the fewest slots, earliest first on ties. */
+    private Waiter next(LaneState state) {
+        Waiter pick = null;
+        int pickLoad = Integer.MAX_VALUE;
+        for (Waiter w : state.queue) {
+            if (!eligible(w.lane, w.userId, w.poolId)) continue;
+            int load = w.userId == null ? 0 : activeByUser.getOrDefault(w.userId, 0);
+            if (load < pickLoad) {
+                pick = w;
+                pickLoad = load;
+                if (load == 0) break;
+            }
+        }
+        return pick;
+    }
+
+    private boolean eligible(Lane lane, Integer userId, Integer poolId) {
+        if (active >= settings.getMaxConcurrent()) return false;
+        if (lane == Lane.PUBLIC && atCap(settings.getPublicMaxConcurrent(), lanes.get(lane).active)) return false;
+        if (userId != null && atCap(settings.getPerUserMaxConcurrent(), activeByUser.getOrDefault(userId, 0))) return false;
+        return poolId == null || !atCap(settings.getPerPoolMaxConcurrent(), activeByPool.getOrDefault(poolId, 0));
+    }
+
+    /** True when {@code used} has reached a positive {@code limit}; 0 means no limit. */
+    private static boolean atCap(int limit, int used) {
+        return limit > 0 && used >= limit;
+    }
+
+    private void grant(Lane lane, Integer userId, Integer poolId) {
+        active++;
+        lanes.get(lane).active++;
+        if (userId != null) activeByUser.merge(userId, 1, Integer::sum);
+        if (poolId != null) activeByPool.merge(poolId, 1, Integer::sum);
+    }
+
+    /** Called with the lock held once a waiter gives up; a slot granted in the meantime is handed on. */
+    private void abandon(Waiter waiter) {
+        LaneState state = lanes.get(waiter.lane);
+        if (waiter.admitted) {
+            active--;
+            state.active--;
+            decrement(activeByUser, waiter.userId);
+            decrement(activeByPool, waiter.poolId);
+        } else {
+            state.queue.remove(waiter);
+            state.waiting--;
+            queued--;
+        }
+        state.rejected.increment();
+        dispatch();
+    }
+
+    private static void decrement(Map<Integer, Integer> counts, Integer key) {
+        if (key != null) counts.computeIfPresent(key, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    private long retryAfterSeconds() {
+        return Math.max(1, settings.getRetryAfter().toSeconds());
+    }
+
+    private int weightOf(Lane lane) {
+        int weight = switch (lane) {
+            case INTERACTIVE -> settings.getInteractiveWeight();
+            case BULK -> settings.getBulkWeight();
+            case PUBLIC -> settings.getPublicWeight();
+        };
+        return Math.max(1, weight);
+    }
+
+    private static String tagOf(Lane lane) {
+        return lane.name().toLowerCase();
+    }
+
+    private static final class LaneState {
+        private final int weight;
+        private final Timer waitTime;
+        private final Counter rejected;
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        private volatile int active;
+        private volatile int waiting;
+        private double pass;
+
+        private LaneState(int weight, Timer waitTime, Counter rejected) {
+            this.weight = weight;
+            this.waitTime = waitTime;
+            this.rejected = rejected;
+        }
+    }
+
+    private static final class Waiter {
+        private final Lane lane;
+        private final Integer userId;
+        private final Integer poolId;
+        private final Condition signal;
+        private boolean admitted;
+
+        private Waiter(Lane lane, Integer userId, Integer poolId, Condition signal) {
+            this.lane = lane;
+            this.userId = userId;
+            this.poolId = poolId;
+            this.signal = signal;
+        }
+    }
+
+    /** A slot held by one transfer. Closing it, or the stream bound to it, frees the slot exactly once. */
+    public final class Ticket implements AutoCloseable {
+        private final Lane lane;
+        private final Integer userId;
+        private final Integer poolId;
+        private final boolean counted;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicInteger extra = new AtomicInteger();
+
+        private Ticket(Lane lane, Integer userId, Integer poolId, boolean counted) {
+            this.lane = lane;
+            this.userId = userId;
+            this.poolId = poolId;
+            this.counted = counted;
+        }
+
+        public Lane lane() { return lane; }
+
+        /**
+         * Claims up to {@code slots} more slots for a transfer that wants more than one channel,
+         * under the same caps; returns how many were granted. They are freed when the ticket closes.
+         */
+        public int widen(int slots) {
+            if (slots <= 0 || closed.get()) return 0;
+            if (!counted) return slots;
+            int granted = TransferScheduler.this.widen(this, slots);
+            extra.addAndGet(granted);
+            return granted;
+        }
+
+        public InputStream bind(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        Ticket.this.close();
+                    }
+                }
+            };
+        }
+
+        public StorageResource bind(StorageResource rs) {
+            return rs.onClose(this::close);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true) && counted) release(this, 1 + extra.getAndSet(0));
+        }
+    }
+}
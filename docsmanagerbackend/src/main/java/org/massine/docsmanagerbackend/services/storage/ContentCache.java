@@ -0,0 +1,425 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Read-through cache for file contents. Objects up to {@code storage.cache.memory-max-object-size}
+ * are kept in direct (off-heap) buffers; larger ones up to {@code storage.cache.disk-max-object-size}
+ * are spooled to a local directory while the first reader streams them, and served from there
+ * afterwards. Both tiers are LRU and bounded in bytes.
+ */
+@Component
+public class ContentCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentCache.class);
+    private static final int MAX_TRACKED_INVALIDATIONS = 10_000;
+
+    private final StorageBackend storage;
+    private final StorageConfig.Cache settings;
+    private final Path diskDir;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, ByteBuffer> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, DiskEntry> disk = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final AtomicLong epoch = new AtomicLong();
+    private final Map<String, Long> invalidatedAt = new ConcurrentHashMap<>();
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypasses = new LongAdder();
+    private final LongAdder bytesFromCache = new LongAdder();
+    private final LongAdder bytesLoaded = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ContentCache(StorageBackend storage, StorageConfig storageConfig, MeterRegistry registry) {
+        this.storage = storage;
+        this.settings = storageConfig.getCache();
+        this.diskDir = Path.of(settings.getDiskDirectory()).toAbsolutePath().normalize();
+
+        FunctionCounter.builder("docsmanager.cache.hits", memoryHits, LongAdder::sum).tag("tier", "memory").register(registry);
+        FunctionCounter.builder("docsmanager.cache.hits", diskHits, LongAdder::sum).tag("tier", "disk").register(registry);
+        FunctionCounter.builder("docsmanager.cache.misses", misses, LongAdder::sum).register(registry);
+        FunctionCounter.builder("docsmanager.cache.bypasses", bypasses, LongAdder::sum).register(registry);
+        FunctionCounter.builder("docsmanager.cache.evictions", evictions, LongAdder::sum).register(registry);
+        FunctionCounter.builder("docsmanager.cache.served", bytesFromCache, LongAdder::sum).baseUnit("bytes").register(registry);
+        FunctionCounter.builder("docsmanager.cache.loaded", bytesLoaded, LongAdder::sum).baseUnit("bytes").register(registry);
+        Gauge.builder("docsmanager.cache.size", this, c -> c.memoryBytes()).tag("tier", "memory").baseUnit("bytes").register(registry);
+        Gauge.builder("docsmanager.cache.size", this, c -> c.diskBytes()).tag("tier", "disk").baseUnit("bytes").register(registry);
+    }
+
+    @PostConstruct
+    void prepareDiskTier() {
+        if (!settings.isEnabled()) return;
+        try {
+            Files.createDirectories(diskDir);
+            try (Stream<Path> leftovers = Files.list(diskDir)) {
+                leftovers.forEach(p -> {
+                    try { Files.deleteIfExists(p); } catch (IOException ignore) {}
+                });
+            }
+        } catch (IOException e) {
+            log.warn("Content cache disk tier unavailable dir={}", diskDir, e);
+        }
+    }
+
+    public StorageResource get(String key) throws IOException {
+        return get(key, -1L);
+    }
+
+    /** Like {@link #get(String)}, trusting {@code knownLength} when it is not negative instead of asking storage. */
+    public StorageResource get(String key, long knownLength) throws IOException {
+        if (!settings.isEnabled()) return fetch(key, knownLength);
+
+        ByteBuffer cached;
+        DiskEntry onDisk;
+        synchronized (lock) {
+            cached = memory.get(key);
+            onDisk = cached == null ? disk.get(key) : null;
+        }
+        if (cached != null) {
+            memoryHits.increment();
+            bytesFromCache.add(cached.remaining());
+            return new StorageResource(new ByteBufferInputStream(cached.duplicate()), cached.remaining());
+        }
+        if (onDisk != null) {
+            try {
+                FileChannel channel = FileChannel.open(onDisk.path, StandardOpenOption.READ);
+                diskHits.increment();
+                bytesFromCache.add(onDisk.size);
+                return new LocalFileResource(onDisk.path, channel, 0L, onDisk.size);
+            } catch (NoSuchFileException e) {
+                synchronized (lock) {
+                    if (disk.get(key) == onDisk) {
+                        disk.remove(key);
+                        diskBytes -= onDisk.size;
+                    }
+                }
+            }
+        }
+
+        misses.increment();
+        return load(key, knownLength);
+    }
+
+    public StorageResource getRange(String key, long offset, long length) throws IOException {
+        if (!settings.isEnabled()) return storage.get(key, offset, length);
+
+        ByteBuffer cached;
+        DiskEntry onDisk;
+        synchronized (lock) {
+            cached = memory.get(key);
+            onDisk = cached == null ? disk.get(key) : null;
+        }
+        if (cached != null && offset + length <= cached.limit()) {
+            ByteBuffer slice = cached.duplicate();
+            slice.position((int) offset);
+            slice.limit((int) (offset + length));
+            memoryHits.increment();
+            bytesFromCache.add(length);
+            return new StorageResource(new ByteBufferInputStream(slice), length);
+        }
+        if (onDisk != null && offset + length <= onDisk.size) {
+            try {
+                FileChannel channel = FileChannel.open(onDisk.path, StandardOpenOption.READ);
+                diskHits.increment();
+                bytesFromCache.add(length);
+                return new LocalFileResource(onDisk.path, channel, offset, length);
+            } catch (NoSuchFileException ignore) {
+            }
+        }
+
+        bypasses.increment();
+        return storage.get(key, offset, length);
+    }
+
+    /** Whether an object of {@code length} bytes is kept by one of the tiers once read through {@link #get}. */
+    public boolean keeps(long length) {
+        return settings.isEnabled() && length >= 0 && length <= settings.getDiskMaxObjectSize().toBytes();
+    }
+
+    public void invalidate(String key) {
+        if (key == null) return;
+        if (invalidatedAt.size() >= MAX_TRACKED_INVALIDATIONS) invalidatedAt.clear();
+        invalidatedAt.put(key, epoch.incrementAndGet());
+        DiskEntry removedDisk;
+        synchronized (lock) {
+            ByteBuffer removed = memory.remove(key);
+            if (removed != null) memoryBytes -= removed.capacity();
+            removedDisk = disk.remove(key);
+            if (removedDisk != null) diskBytes -= removedDisk.size;
+        }
+        if (removedDisk != null) deleteQuietly(removedDisk.path);
+    }
+
+    public long memoryBytes() {
+        synchronized (lock) { return memoryBytes; }
+    }
+
+    public long diskBytes() {
+        synchronized (lock) { return diskBytes; }
+    }
+
+    private StorageResource fetch(String key, long knownLength) throws IOException {
+        return knownLength >= 0 ? storage.open(key, knownLength) : storage.get(key);
+    }
+
+    private StorageResource load(String key, long knownLength) throws IOException {
+        long startedAt = epoch.get();
+        StorageResource source = fetch(key, knownLength);
+        long length = source.length();
+
+        if (length < 0 || length > settings.getDiskMaxObjectSize().toBytes()) {
+            bypasses.increment();
+            return source;
+        }
+
+        if (length <= settings.getMemoryMaxObjectSize().toBytes()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+            try (source; InputStream in = source.getInputStream()) {
+                byte[] chunk = new byte[(int) Math.min(64 * 1024, Math.max(1, length))];
+                int n;
+                while (buffer.hasRemaining() && (n = in.read(chunk, 0, Math.min(chunk.length, buffer.remaining()))) > 0) {
+                    buffer.put(chunk, 0, n);
+                }
+                if (buffer.hasRemaining() || in.read() != -1) {
+                    throw new IOException("Length mismatch while caching " + key + ", expected " + length);
+                }
+            }
+            buffer.flip();
+            bytesLoaded.add(buffer.remaining());
+            if (isCurrent(key, startedAt)) admitToMemory(key, buffer);
+            return new StorageResource(new ByteBufferInputStream(buffer.duplicate()), buffer.remaining());
+        }
+
+        Path file = diskDir.resolve(UUID.randomUUID() + ".bin");
+        OutputStream spool;
+        try {
+            Files.createDirectories(diskDir);
+            spool = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+        } catch (IOException e) {
+            log.debug("Cannot spool {} to the disk tier, serving it uncached", key, e);
+            deleteQuietly(file);
+            bypasses.increment();
+            return source;
+        }
+        try {
+            return new StorageResource(new SpoolingInputStream(key, startedAt, source, file, spool, length), length);
+        } catch (IOException | RuntimeException e) {
+            try { spool.close(); } catch (IOException ignore) {}
+            deleteQuietly(file);
+            source.close();
+            throw e;
+        }
+    }
+
+    private boolean isCurrent(String key, long startedAt) {
+        Long at = invalidatedAt.get(key);
+        return at == null || at <= startedAt;
+    }
+
+    private void admitToMemory(String key, ByteBuffer buffer) {
+        long max = settings.getMemoryMaxSize().toBytes();
+        if (buffer.capacity() > max) return;
+        synchronized (lock) {
+            ByteBuffer previous = memory.put(key, buffer);
+            if (previous != null) memoryBytes -= previous.capacity();
+            memoryBytes += buffer.capacity();
+            Iterator<Map.Entry<String, ByteBuffer>> it = memory.entrySet().iterator();
+            while (memoryBytes > max && it.hasNext()) {
+                Map.Entry<String, ByteBuffer> eldest = it.next();
+                memoryBytes -= eldest.getValue().capacity();
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private void admitToDisk(String key, DiskEntry entry) {
+        long max = settings.getDiskMaxSize().toBytes();
+        if (entry.size > max) {
+            deleteQuietly(entry.path);
+            return;
+        }
+        List<Path> doomed = new ArrayList<>();
+        synchronized (lock) {
+            DiskEntry previous = disk.put(key, entry);
+            if (previous != null) {
+                diskBytes -= previous.size;
+                doomed.add(previous.path);
+            }
+            diskBytes += entry.size;
+            Iterator<Map.Entry<String, DiskEntry>> it = disk.entrySet().iterator();
+            while (diskBytes > max && it.hasNext()) {
+                DiskEntry eldest = it.next().getValue();
+                diskBytes -= eldest.size;
+                doomed.add(eldest.path);
+                it.remove();
+                evictions.increment();
+            }
+        }
+        doomed.forEach(ContentCache::deleteQuietly);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try { Files.deleteIfExists(path); } catch (IOException ignore) {}
+    }
+
+    private record DiskEntry(Path path, long size) {}
+
+    /**
+     * Hands the stored bytes to the reader as they arrive while copying them to a spool file, so
+     * a miss costs no more time to first byte than an uncached read. The file joins the disk tier
+     * once every byte has gone through; a reader that stops early or fails leaves nothing behind.
+     * Disk hits read through a channel opened before any delete, so eviction and invalidation
+     * never cut them short.
+     */
+    private final class SpoolingInputStream extends InputStream {
+        private final String key;
+        private final long startedAt;
+        private final StorageResource source;
+        private final InputStream in;
+        private final Path file;
+        private final long expected;
+        private OutputStream spool;
+        private long written;
+        private boolean done;
+
+        SpoolingInputStream(String key, long startedAt, StorageResource source, Path file, OutputStream spool,
+                            long expected) throws IOException {
+            this.key = key;
+            this.startedAt = startedAt;
+            this.source = source;
+            this.in = source.getInputStream();
+            this.file = file;
+            this.spool = spool;
+            this.expected = expected;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n <= 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                written += n;
+                if (spool != null) {
+                    try {
+                        spool.write(b, off, n);
+                    } catch (IOException e) {
+                        log.debug("Spooling {} to the disk tier failed, serving the rest uncached", key, e);
+                        abandon();
+                    }
+                }
+            } else if (n < 0) {
+                finish();
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                source.close();
+            } finally {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (done) return;
+            done = true;
+            bytesLoaded.add(written);
+            if (spool == null) return;
+            try {
+                spool.close();
+            } catch (IOException e) {
+                abandon();
+                return;
+            }
+            spool = null;
+            if (written == expected && isCurrent(key, startedAt)) {
+                admitToDisk(key, new DiskEntry(file, written));
+            } else {
+                deleteQuietly(file);
+            }
+        }
+
+        private void abandon() {
+            if (spool == null) return;
+            try { spool.close(); } catch (IOException ignore) {}
+            spool = null;
+            deleteQuietly(file);
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public long skip(long n) {
+            int k = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + k);
+            return k;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+/**
+ * Pull-side gzip encoder: reading from it yields the gzip encoding of {@code source}, so a
+ * compressed upload can be handed to {@link StorageBackend#put} without an intermediate pipe.
+ */
+public final class GzipCompressingInputStream extends InputStream {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final CheckedInputStream checked;
+    private final Deflater deflater;
+    private final DeflaterInputStream body;
+    private InputStream current;
+    private int stage;
+
+    public GzipCompressingInputStream(InputStream source, int level) {
+        this.checked = new CheckedInputStream(source, new CRC32());
+        this.deflater = new Deflater(level, true);
+        this.body = new DeflaterInputStream(checked, deflater, 64 * 1024);
+        this.current = new ByteArrayInputStream(HEADER);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (true) {
+            int n = current.read(b, off, len);
+            if (n > 0) return n;
+            if (n == 0) continue;
+            if (!advance()) return -1;
+        }
+    }
+
+    private boolean advance() {
+        if (stage == 0) {
+            current = body;
+        } else if (stage == 1) {
+            long crc = checked.getChecksum().getValue();
+            long size = deflater.getBytesRead();
+            byte[] trailer = new byte[8];
+            for (int i = 0; i < 4; i++) trailer[i] = (byte) (crc >>> (8 * i));
+            for (int i = 0; i < 4; i++) trailer[4 + i] = (byte) (size >>> (8 * i));
+            current = new ByteArrayInputStream(trailer);
+        } else {
+            return false;
+        }
+        stage++;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            body.close();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Stored object living on a local or mounted filesystem. Written to the client with
+ * {@link FileChannel#transferTo} instead of being copied through the heap. Reads go through the
+ * channel opened up front, so they are unaffected by the file being deleted afterwards.
+ */
+public class LocalFileResource extends StorageResource {
+    private final Path path;
+    private final FileChannel channel;
+    private final long position;
+
+    public LocalFileResource(Path path, FileChannel channel, long position, long length) throws IOException {
+        super(Channels.newInputStream(channel), length);
+        this.path = path;
+        this.channel = channel;
+        this.position = position;
+        if (position > 0) channel.position(position);
+    }
+
+    public Path path() { return path; }
+
+    public FileChannel channel() { return channel; }
+
+    public long position() { return position; }
+
+    @Override
+    protected void release() {
+        try { channel.close(); } catch (Exception ignore) {}
+    }
+}
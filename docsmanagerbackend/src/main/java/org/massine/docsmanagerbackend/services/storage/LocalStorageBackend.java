@@ -0,0 +1,154 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import org.massine.docsmanagerbackend.config.SftpConfig;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Stores objects on a local or NFS-mounted volume under {@code storage.local.root}. Keys keep
+ * the SFTP layout: the configured SFTP base directory is mapped onto the local root.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "local")
+public class LocalStorageBackend implements StorageBackend {
+
+    private final SftpConfig sftpConfig;
+    private final Path root;
+
+    public LocalStorageBackend(SftpConfig sftpConfig, StorageConfig storageConfig) {
+        String configured = storageConfig.getLocal().getRoot();
+        if (configured == null || configured.isBlank()) {
+            throw new IllegalStateException("storage.local.root is required when storage.backend=local");
+        }
+        this.sftpConfig = sftpConfig;
+        this.root = Path.of(configured).toAbsolutePath().normalize();
+    }
+
+    @Override
+    public void put(String key, InputStream data) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), ".put-", ".tmp");
+        try {
+            Files.copy(data, tmp, StandardCopyOption.REPLACE_EXISTING);
+            move(tmp, target);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    @Override
+    public void append(String key, InputStream data) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        try (OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            data.transferTo(out);
+        }
+    }
+
+    @Override
+    public StorageResource get(String key) throws IOException {
+        Path path = resolve(key);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new LocalFileResource(path, channel, 0L, channel.size());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public StorageResource get(String key, long offset, long length) throws IOException {
+        Path path = resolve(key);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new LocalFileResource(path, channel, offset, length);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public StorageStat stat(String key) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(resolve(key), BasicFileAttributes.class);
+            return new StorageStat(key, attrs.size(), attrs.lastModifiedTime().toInstant(), attrs.isDirectory());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public void rename(String fromKey, String toKey) throws IOException {
+        Path from = resolve(fromKey);
+        Path to = resolve(toKey);
+        Files.createDirectories(to.getParent());
+        move(from, to);
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public void deleteDirectory(String dirKey) throws IOException {
+        Files.deleteIfExists(resolve(dirKey));
+    }
+
+    @Override
+    public List<StorageStat> list(String dirKey) throws IOException {
+        Path dir = resolve(dirKey);
+        if (!Files.isDirectory(dir)) return List.of();
+        List<StorageStat> out = new ArrayList<>();
+        try (Stream<Path> children = Files.list(dir)) {
+            for (Path child : (Iterable<Path>) children::iterator) {
+                BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                out.add(new StorageStat(dirKey + "/" + child.getFileName(), attrs.size(),
+                        attrs.lastModifiedTime().toInstant(), attrs.isDirectory()));
+            }
+        }
+        return out;
+    }
+
+    private Path resolve(String key) throws IOException {
+        String base = sftpConfig.normalizedBaseDir();
+        String relative = key;
+        if (base != null && !base.isEmpty() && (key.equals(base) || key.startsWith(base + "/"))) {
+            relative = key.substring(base.length());
+        }
+        while (relative.startsWith("/")) relative = relative.substring(1);
+        Path resolved = root.resolve(relative).normalize();
+        if (!resolved.startsWith(root)) {
+            throw new IOException("Path escapes storage root: " + key);
+        }
+        return resolved;
+    }
+}
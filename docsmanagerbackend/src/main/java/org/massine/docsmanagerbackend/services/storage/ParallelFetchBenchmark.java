@@ -0,0 +1,69 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures one stored object read as a single stream and through {@link ParallelFetcher}, so the
+ * parallel-fetch settings can be tuned against the real storage host. Reads go straight to the
+ * backend, past the content cache and the limiter, and the two modes alternate run by run so
+ * neither benefits from the other warming the host.
+ */
+@Component
+public class ParallelFetchBenchmark {
+
+    public record Report(String key, long size, int runs, int parallelism, long chunkSize,
+                         List<Long> singleMillis, List<Long> parallelMillis,
+                         double singleMegabytesPerSecond, double parallelMegabytesPerSecond, double speedup) {}
+
+    private final StorageBackend storage;
+    private final ParallelFetcher parallelFetcher;
+
+    public ParallelFetchBenchmark(StorageBackend storage, ParallelFetcher parallelFetcher) {
+        this.storage = storage;
+        this.parallelFetcher = parallelFetcher;
+    }
+
+    /** Throughput is computed from the median run of each mode. */
+    public Report run(String key, long size, int runs) throws IOException {
+        int parallelism = Math.max(1, parallelFetcher.parallelism());
+        List<Long> single = new ArrayList<>();
+        List<Long> parallel = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            single.add(time(storage.open(key, size), size));
+            StorageResource first = storage.get(key, 0, parallelFetcher.firstChunk(size));
+            parallel.add(time(parallelFetcher.wrap(key, size, first, parallelism,
+                    (offset, length) -> storage.get(key, offset, length)), size));
+        }
+        double singleRate = megabytesPerSecond(size, median(single));
+        double parallelRate = megabytesPerSecond(size, median(parallel));
+        return new Report(key, size, runs, parallelism, parallelFetcher.chunkSize(), single, parallel, singleRate, parallelRate,
+                singleRate > 0 ? parallelRate / singleRate : 0);
+    }
+
+    private static long time(StorageResource rs, long size) throws IOException {
+        long startedAt = System.nanoTime();
+        long read;
+        try (rs; InputStream in = rs.getInputStream()) {
+            read = in.transferTo(OutputStream.nullOutputStream());
+        }
+        if (read != size) throw new IOException("Read " + read + " of " + size + " bytes");
+        return (System.nanoTime() - startedAt) / 1_000_000;
+    }
+
+    private static long median(List<Long> millis) {
+        long[] sorted = millis.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static double megabytesPerSecond(long size, long millis) {
+        return millis <= 0 ? 0 : (size / 1_048_576.0) / (millis / 1000.0);
+    }
+}
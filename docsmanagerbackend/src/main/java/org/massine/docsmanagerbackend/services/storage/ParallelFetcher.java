@@ -0,0 +1,204 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import jakarta.annotation.PreDestroy;
+import org.massine.docsmanagerbackend.config.StorageConfig;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opt-in transfer mode for large objects: fetches consecutive byte ranges concurrently over
+ * several pooled channels and hands them to the reader in order. The caller decides how many
+ * chunks per download may be in flight or buffered, up to {@code storage.parallel-fetch.parallelism},
+ * and how each ranged read is opened, so every extra channel is admitted like any other read.
+ */
+@Component
+public class ParallelFetcher {
+
+    /** Opens one ranged read of the object being fetched. */
+    @FunctionalInterface
+    public interface RangeOpener {
+        StorageResource open(long offset, long length) throws Exception;
+    }
+
+    private final StorageConfig.ParallelFetch settings;
+    private final ExecutorService executor;
+
+    public ParallelFetcher(StorageConfig storageConfig) {
+        this.settings = storageConfig.getParallelFetch();
+        AtomicInteger seq = new AtomicInteger();
+        int threads = Math.max(1, settings.getMaxThreads());
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "parallel-fetch-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    /** Decided from the stored length alone, before anything is opened. */
+    public boolean accepts(long length) {
+        return settings.isEnabled()
+                && length >= settings.getThreshold().toBytes()
+                && settings.getParallelism() > 1;
+    }
+
+    public int parallelism() {
+        return settings.getParallelism();
+    }
+
+    public long chunkSize() {
+        return Math.max(64 * 1024, settings.getChunkSize().toBytes());
+    }
+
+    /** Length of the first chunk of an object of {@code size} bytes, read from the stream given to {@link #wrap}. */
+    public long firstChunk(long size) {
+        return Math.min(chunkSize(), size);
+    }
+
+    /**
+     * Reads an object of {@code size} bytes: the first {@link #firstChunk} bytes from {@code opened},
+     * which starts at offset 0, the following chunks through {@code ranges}, with at most
+     * {@code parallelism} chunks in flight or buffered.
+     */
+    public StorageResource wrap(String key, long size, StorageResource opened, int parallelism, RangeOpener ranges) {
+        long chunk = chunkSize();
+        int window = Math.max(1, Math.min(parallelism, settings.getParallelism()));
+        return new StorageResource(new ParallelRangeInputStream(key, size, opened, ranges, chunk, window), size);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] readExactly(InputStream in, int len) throws IOException {
+        byte[] out = new byte[len];
+        int filled = 0;
+        while (filled < len) {
+            int n = in.read(out, filled, len - filled);
+            if (n < 0) throw new IOException("Unexpected end of stream after " + filled + " of " + len + " bytes");
+            filled += n;
+        }
+        return out;
+    }
+
+    private final class ParallelRangeInputStream extends InputStream {
+        private final String key;
+        private final StorageResource opened;
+        private final RangeOpener ranges;
+        private final AtomicBoolean openedClaimed = new AtomicBoolean();
+        private final long size;
+        private final long chunkSize;
+        private final int parallelism;
+        private final ArrayDeque<CompletableFuture<byte[]>> window = new ArrayDeque<>();
+        private long nextOffset;
+        private byte[] current;
+        private int pos;
+        private boolean closed;
+
+        ParallelRangeInputStream(String key, long size, StorageResource opened, RangeOpener ranges, long chunkSize,
+                                 int parallelism) {
+            this.key = key;
+            this.opened = opened;
+            this.ranges = ranges;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.parallelism = parallelism;
+
+            int firstLen = (int) Math.min(chunkSize, size);
+            window.add(CompletableFuture.supplyAsync(() -> {
+                // Whoever claims the opened stream closes it: this task, or close() if the task never ran.
+                if (!openedClaimed.compareAndSet(false, true)) throw new CancellationException();
+                try (opened; InputStream in = opened.getInputStream()) {
+                    return readExactly(in, firstLen);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+            nextOffset = firstLen;
+            fill();
+        }
+
+        private void fill() {
+            while (window.size() < parallelism && nextOffset < size) {
+                long off = nextOffset;
+                int len = (int) Math.min(chunkSize, size - off);
+                window.add(CompletableFuture.supplyAsync(() -> {
+                    try (StorageResource r = ranges.open(off, len); InputStream in = r.getInputStream()) {
+                        return readExactly(in, len);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+                nextOffset += len;
+            }
+        }
+
+        private boolean advance() throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            CompletableFuture<byte[]> next = window.poll();
+            if (next == null) return false;
+            try {
+                current = next.join();
+            } catch (CompletionException | CancellationException e) {
+                Throwable cause = e.getCause() instanceof UncheckedIOException u ? u.getCause() : e.getCause();
+                throw new IOException("Parallel fetch failed for " + key, cause != null ? cause : e);
+            }
+            pos = 0;
+            fill();
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (current == null || pos >= current.length) {
+                if (!advance()) return -1;
+            }
+            return current[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (current == null || pos >= current.length) {
+                if (!advance()) return -1;
+            }
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(current, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.length - pos;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            for (CompletableFuture<byte[]> f : window) f.cancel(false);
+            window.clear();
+            current = null;
+            if (openedClaimed.compareAndSet(false, true)) opened.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers remote directories known to exist so uploads into an existing
+ * pool/user directory skip the per-segment stat/mkdir walk.
+ */
+@Component
+public class RemoteDirectoryCache {
+
+    private static final int MAX_ENTRIES = 10_000;
+
+    private final Set<String> known = ConcurrentHashMap.newKeySet();
+
+    public void ensure(ChannelSftp sftp, String absoluteDir) throws SftpException {
+        if (known.contains(absoluteDir)) return;
+
+        String[] parts = absoluteDir.replaceAll("/{2,}", "/").split("/");
+        StringBuilder cur = new StringBuilder();
+        for (String part : parts) {
+            if (part == null || part.isBlank()) continue;
+            cur.append('/').append(part);
+            String dir = cur.toString();
+            if (known.contains(dir)) continue;
+            if (!isDirectory(sftp, dir)) {
+                try {
+                    sftp.mkdir(dir);
+                } catch (SftpException e) {
+                    if (!isDirectory(sftp, dir)) throw e;
+                }
+            }
+            remember(dir);
+        }
+    }
+
+    public void invalidate(String absoluteDir) {
+        if (absoluteDir == null) return;
+        String prefix = absoluteDir.endsWith("/") ? absoluteDir : absoluteDir + "/";
+        known.removeIf(d -> d.equals(absoluteDir) || d.startsWith(prefix));
+    }
+
+    private void remember(String dir) {
+        if (known.size() >= MAX_ENTRIES) known.clear();
+        known.add(dir);
+    }
+
+    private boolean isDirectory(ChannelSftp sftp, String dir) throws SftpException {
+        try {
+            SftpATTRS attrs = sftp.stat(dir);
+            return attrs.isDir();
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) return false;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import com.jcraft.jsch.JSchException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.massine.docsmanagerbackend.config.SftpConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps concurrent SFTP operations, an operation being a leased channel held until its stream is
+ * closed, and the number of callers allowed to queue for one. Queued callers park, so with
+ * virtual threads a large backlog costs little, while at most {@code capacity} threads are inside
+ * JSch at once. JSch waits on monitors (its channel pipes use {@code synchronized}/{@code wait}),
+ * which pins the carrier on Java 21; bounding those threads keeps the pinned carriers well below
+ * the scheduler's compensation limit. Callers beyond {@code sftp.gate.max-waiting} fail at once
+ * instead of holding their request, and its database connection, for nothing.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "sftp", matchIfMissing = true)
+public class SftpGate {
+
+    private static final Logger log = LoggerFactory.getLogger(SftpGate.class);
+
+    private final Semaphore permits;
+    private final int capacity;
+    private final int maxWaiting;
+    private final long maxWaitNanos;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public SftpGate(SftpConfig sftpConfig, MeterRegistry registry) {
+        SftpConfig.SessionPool pool = sftpConfig.getPool();
+        SftpConfig.Gate settings = sftpConfig.getGate();
+        int channels = pool.getMaxSize() * pool.getMaxChannelsPerSession();
+        this.capacity = settings.getMaxConcurrent() > 0 ? Math.min(settings.getMaxConcurrent(), channels) : channels;
+        this.maxWaiting = settings.getMaxWaiting();
+        this.maxWaitNanos = settings.getMaxWait().toNanos();
+        this.permits = new Semaphore(capacity, true);
+
+        int carrierLimit = Integer.getInteger("jdk.virtualThreadScheduler.maxPoolSize", 256);
+        if (capacity >= carrierLimit) {
+            log.warn("SFTP gate capacity {} reaches the virtual thread carrier limit {}; pinned JSch calls may starve other requests",
+                    capacity, carrierLimit);
+        }
+        Gauge.builder("docsmanager.sftp.gate.active", this, SftpGate::active).register(registry);
+        Gauge.builder("docsmanager.sftp.gate.waiting", this, SftpGate::waiting).register(registry);
+        Gauge.builder("docsmanager.sftp.gate.capacity", this, g -> g.capacity).register(registry);
+    }
+
+    public void acquire() throws JSchException {
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            throw new JSchException("SFTP_GATE_SATURATED capacity=" + capacity + " maxWaiting=" + maxWaiting);
+        }
+        try {
+            if (!permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                throw new JSchException("SFTP_GATE_TIMEOUT capacity=" + capacity
+                        + " waitedMs=" + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSchException("SFTP_GATE_INTERRUPTED", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int active() { return capacity - permits.availablePermits(); }
+
+    public int waiting() { return waiting.get(); }
+}
@@ -0,0 +1,387 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import jakarta.annotation.PreDestroy;
+import org.massine.docsmanagerbackend.config.SftpConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pool of SSH sessions to the SFTP host, shared by every storage operation.
+ * Each session multiplexes up to {@code sftp.pool.max-channels-per-session} SFTP channels;
+ * channels are kept open between leases and only have their working directory restored
+ * when they are handed back. Sessions are validated on borrow, kept alive while idle and
+ * evicted once they have been idle longer than {@code sftp.pool.max-idle-time}. How many
+ * leases may be out at once is decided by the {@link SftpGate}.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "sftp", matchIfMissing = true)
+public class SftpSessionPool {
+
+    private static final Logger log = LoggerFactory.getLogger(SftpSessionPool.class);
+    private static final int RETIRING = Integer.MIN_VALUE / 2;
+
+    private final SftpConfig sftpConfig;
+    private final SftpConfig.SessionPool settings;
+
+    private final Set<PooledSession> sessions = ConcurrentHashMap.newKeySet();
+    private final SftpGate gate;
+    private final AtomicInteger open = new AtomicInteger();
+    private final ReentrantLock availability = new ReentrantLock();
+    private final Condition available = availability.newCondition();
+    private long availableVersion;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public SftpSessionPool(SftpConfig sftpConfig, SftpGate gate) {
+        this.sftpConfig = sftpConfig;
+        this.settings = sftpConfig.getPool();
+        this.gate = gate;
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sftp-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        long period = Math.max(1000L, settings.getEvictionInterval().toMillis());
+        housekeeper.scheduleWithFixedDelay(this::evictAndRefill, period, period, TimeUnit.MILLISECONDS);
+        if (settings.isWarmUp()) {
+            housekeeper.execute(this::refill);
+        }
+    }
+
+    public Lease borrow() throws JSchException {
+        if (closed) throw new JSchException("SFTP_POOL_CLOSED");
+        gate.acquire();
+        long timeoutMs = settings.getAcquireTimeout().toMillis();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+        try {
+            while (true) {
+                long seen = availableVersion();
+                PooledSession ps = claimSession();
+                if (ps == null && reserveSlot()) {
+                    ps = createReserved();
+                    ps.leased.incrementAndGet();
+                    sessions.add(ps);
+                    signalAvailable();
+                }
+                if (ps == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) throw exhausted(timeoutMs);
+                    awaitAvailable(seen, remaining);
+                    continue;
+                }
+                try {
+                    return new Lease(ps, ps.takeChannel());
+                } catch (JSchException e) {
+                    ps.leased.decrementAndGet();
+                    if (!ps.session.isConnected()) {
+                        retire(ps);
+                        continue;
+                    }
+                    throw e;
+                }
+            }
+        } catch (JSchException | RuntimeException e) {
+            gate.release();
+            throw e;
+        }
+    }
+
+    public int openSessions() { return sessions.size(); }
+
+    public int leasedChannels() {
+        int n = 0;
+        for (PooledSession ps : sessions) n += Math.max(0, ps.leased.get());
+        return n;
+    }
+
+    private long availableVersion() {
+        availability.lock();
+        try {
+            return availableVersion;
+        } finally {
+            availability.unlock();
+        }
+    }
+
+    /** Parks until a channel or session slot has been handed back since {@code seen}, or the time is up. */
+    private void awaitAvailable(long seen, long nanos) throws JSchException {
+        availability.lock();
+        try {
+            while (availableVersion == seen && nanos > 0) {
+                nanos = available.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSchException("SFTP_POOL_INTERRUPTED", e);
+        } finally {
+            availability.unlock();
+        }
+    }
+
+    private void signalAvailable() {
+        availability.lock();
+        try {
+            availableVersion++;
+            available.signalAll();
+        } finally {
+            availability.unlock();
+        }
+    }
+
+    private JSchException exhausted(long timeoutMs) {
+        return new JSchException("SFTP_POOL_EXHAUSTED maxSize=" + settings.getMaxSize()
+                + " maxChannelsPerSession=" + settings.getMaxChannelsPerSession() + " timeoutMs=" + timeoutMs);
+    }
+
+    private PooledSession claimSession() {
+        PooledSession fallback = null;
+        for (PooledSession ps : sessions) {
+            if (!ps.session.isConnected()) {
+                if (ps.leased.compareAndSet(0, RETIRING)) retire(ps);
+                continue;
+            }
+            if (!ps.idleChannels.isEmpty() && tryClaim(ps)) {
+                if (isHealthy(ps)) return ps;
+                ps.leased.decrementAndGet();
+                continue;
+            }
+            if (fallback == null && ps.leased.get() >= 0 && ps.leased.get() < settings.getMaxChannelsPerSession()) {
+                fallback = ps;
+            }
+        }
+        if (fallback != null && tryClaim(fallback)) {
+            if (isHealthy(fallback)) return fallback;
+            fallback.leased.decrementAndGet();
+        }
+        return null;
+    }
+
+    private boolean tryClaim(PooledSession ps) {
+        while (true) {
+            int cur = ps.leased.get();
+            if (cur < 0 || cur >= settings.getMaxChannelsPerSession()) return false;
+            if (ps.leased.compareAndSet(cur, cur + 1)) return true;
+        }
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int cur = open.get();
+            if (cur >= settings.getMaxSize()) return false;
+            if (open.compareAndSet(cur, cur + 1)) return true;
+        }
+    }
+
+    private PooledSession createReserved() throws JSchException {
+        try {
+            JSch jsch = new JSch();
+            jsch.addIdentity(sftpConfig.getPrivateKeyPath());
+            Session session = jsch.getSession(
+                    sftpConfig.getUsername(),
+                    sftpConfig.getHost(),
+                    sftpConfig.getPort()
+            );
+            session.setConfig("StrictHostKeyChecking", "no");
+            session.setConfig("compression.s2c", "none");
+            session.setConfig("compression.c2s", "none");
+            int keepalive = (int) settings.getKeepaliveInterval().toMillis();
+            if (keepalive > 0) {
+                session.setServerAliveInterval(keepalive);
+                session.setServerAliveCountMax(3);
+            }
+            session.connect((int) settings.getAcquireTimeout().toMillis());
+            return new PooledSession(session, (int) settings.getAcquireTimeout().toMillis());
+        } catch (JSchException | RuntimeException e) {
+            open.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean isHealthy(PooledSession ps) {
+        if (!ps.session.isConnected()) return false;
+        if (!settings.isValidateOnBorrow()) return true;
+        try {
+            ps.session.sendKeepAliveMsg();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void release(PooledSession ps, ChannelSftp sftp) {
+        try {
+            if (!closed && ps.session.isConnected() && reset(sftp)) {
+                ps.idleChannels.offerFirst(sftp);
+            } else {
+                sftp.disconnect();
+            }
+        } finally {
+            ps.lastUsed = System.nanoTime();
+            ps.leased.decrementAndGet();
+            if (!ps.session.isConnected() && ps.leased.compareAndSet(0, RETIRING)) retire(ps);
+            gate.release();
+            signalAvailable();
+        }
+    }
+
+    private void discard(PooledSession ps, ChannelSftp sftp) {
+        try {
+            sftp.disconnect();
+        } catch (Exception ignore) {
+        } finally {
+            ps.lastUsed = System.nanoTime();
+            ps.leased.decrementAndGet();
+            if (!ps.session.isConnected() && ps.leased.compareAndSet(0, RETIRING)) retire(ps);
+            gate.release();
+            signalAvailable();
+        }
+    }
+
+    private boolean reset(ChannelSftp sftp) {
+        if (!sftp.isConnected() || sftp.isClosed()) return false;
+        try {
+            String home = sftp.getHome();
+            if (!home.equals(sftp.pwd())) sftp.cd(home);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void retire(PooledSession ps) {
+        if (!sessions.remove(ps)) return;
+        try {
+            ChannelSftp ch;
+            while ((ch = ps.idleChannels.pollFirst()) != null) {
+                try { ch.disconnect(); } catch (Exception ignore) {}
+            }
+            ps.session.disconnect();
+        } catch (Exception ignore) {
+        } finally {
+            open.decrementAndGet();
+            signalAvailable();
+        }
+    }
+
+    private void evictAndRefill() {
+        try {
+            long maxIdleNanos = settings.getMaxIdleTime().toNanos();
+            long now = System.nanoTime();
+            for (PooledSession ps : sessions) {
+                boolean stale = !ps.session.isConnected();
+                boolean expired = now - ps.lastUsed > maxIdleNanos && sessions.size() > settings.getMinIdle();
+                if ((stale || expired) && ps.leased.compareAndSet(0, RETIRING)) {
+                    retire(ps);
+                }
+            }
+            refill();
+        } catch (Exception e) {
+            log.warn("SFTP pool housekeeping failed", e);
+        }
+    }
+
+    private void refill() {
+        while (!closed && sessions.size() < settings.getMinIdle() && reserveSlot()) {
+            PooledSession ps = null;
+            try {
+                ps = createReserved();
+                ps.idleChannels.offerFirst(ps.openChannel());
+                sessions.add(ps);
+                signalAvailable();
+            } catch (Exception e) {
+                if (ps != null) {
+                    // createReserved gives the slot back itself; past it, the session is ours to close.
+                    try { ps.session.disconnect(); } catch (Exception ignore) {}
+                    open.decrementAndGet();
+                    signalAvailable();
+                }
+                log.warn("SFTP pool warm-up failed host={}:{}", sftpConfig.getHost(), sftpConfig.getPort(), e);
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        housekeeper.shutdownNow();
+        for (PooledSession ps : sessions) {
+            retire(ps);
+        }
+    }
+
+    private static final class PooledSession {
+        private final Session session;
+        private final int connectTimeoutMs;
+        private final ConcurrentLinkedDeque<ChannelSftp> idleChannels = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger leased = new AtomicInteger();
+        private volatile long lastUsed = System.nanoTime();
+
+        private PooledSession(Session session, int connectTimeoutMs) {
+            this.session = session;
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+
+        private ChannelSftp takeChannel() throws JSchException {
+            ChannelSftp ch;
+            while ((ch = idleChannels.pollFirst()) != null) {
+                if (ch.isConnected() && !ch.isClosed()) return ch;
+                try { ch.disconnect(); } catch (Exception ignore) {}
+            }
+            return openChannel();
+        }
+
+        private ChannelSftp openChannel() throws JSchException {
+            ChannelSftp ch = (ChannelSftp) session.openChannel("sftp");
+            ch.connect(connectTimeoutMs);
+            return ch;
+        }
+    }
+
+    /** Hands the channel back exactly once. No monitor is held while doing so: releasing talks to the server. */
+    public final class Lease implements AutoCloseable {
+        private final PooledSession pooled;
+        private final ChannelSftp sftp;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Lease(PooledSession pooled, ChannelSftp sftp) {
+            this.pooled = pooled;
+            this.sftp = sftp;
+        }
+
+        public ChannelSftp sftp() { return sftp; }
+
+        public void invalidate() {
+            if (done.compareAndSet(false, true)) discard(pooled, sftp);
+        }
+
+        @Override
+        public void close() {
+            if (done.compareAndSet(false, true)) release(pooled, sftp);
+        }
+    }
+}
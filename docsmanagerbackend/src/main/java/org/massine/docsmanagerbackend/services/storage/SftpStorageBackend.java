@@ -0,0 +1,249 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import org.massine.docsmanagerbackend.config.SftpConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "sftp", matchIfMissing = true)
+public class SftpStorageBackend implements StorageBackend {
+
+    private final SftpConfig sftpConfig;
+    private final SftpSessionPool sessionPool;
+    private final RemoteDirectoryCache directoryCache;
+
+    public SftpStorageBackend(SftpConfig sftpConfig, SftpSessionPool sessionPool, RemoteDirectoryCache directoryCache) {
+        this.sftpConfig = sftpConfig;
+        this.sessionPool = sessionPool;
+        this.directoryCache = directoryCache;
+    }
+
+    @Override
+    public void put(String key, InputStream data) throws IOException {
+        String dir = parentOf(key);
+        try (SftpSessionPool.Lease lease = borrow()) {
+            ChannelSftp sftp = lease.sftp();
+            directoryCache.ensure(sftp, dir);
+            try {
+                sftp.put(data, key);
+            } catch (SftpException se) {
+                if (se.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) throw se;
+                directoryCache.invalidate(dir);
+                directoryCache.ensure(sftp, dir);
+                sftp.put(data, key);
+            }
+        } catch (SftpException se) {
+            throw failure("put", key, se);
+        }
+    }
+
+    @Override
+    public void append(String key, InputStream data) throws IOException {
+        try (SftpSessionPool.Lease lease = borrow()) {
+            ChannelSftp sftp = lease.sftp();
+            directoryCache.ensure(sftp, parentOf(key));
+            sftp.put(data, key, ChannelSftp.APPEND);
+        } catch (SftpException se) {
+            throw failure("append", key, se);
+        }
+    }
+
+    @Override
+    public StorageResource get(String key) throws IOException {
+        SftpSessionPool.Lease lease = borrow();
+        try {
+            ChannelSftp sftp = lease.sftp();
+            SftpATTRS attrs = sftp.lstat(key);
+            InputStream in = sftp.get(key);
+            return new StorageResource(new ReleasingInputStream(in, lease), attrs.getSize());
+        } catch (SftpException se) {
+            lease.close();
+            throw failure("get", key, se);
+        } catch (RuntimeException e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public StorageResource open(String key, long length) throws IOException {
+        SftpSessionPool.Lease lease = borrow();
+        try {
+            InputStream in = lease.sftp().get(key);
+            return new StorageResource(new ReleasingInputStream(in, lease), length);
+        } catch (SftpException se) {
+            lease.close();
+            throw failure("get", key, se);
+        } catch (RuntimeException e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public StorageResource get(String key, long offset, long length) throws IOException {
+        SftpSessionPool.Lease lease = borrow();
+        try {
+            InputStream in = lease.sftp().get(key, null, offset);
+            return new StorageResource(new ReleasingInputStream(new BoundedInputStream(in, length), lease), length);
+        } catch (SftpException se) {
+            lease.close();
+            throw failure("get", key, se);
+        } catch (RuntimeException e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public StorageStat stat(String key) throws IOException {
+        try (SftpSessionPool.Lease lease = borrow()) {
+            return toStat(key, lease.sftp().stat(key));
+        } catch (SftpException se) {
+            if (se.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) return null;
+            throw failure("stat", key, se);
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        try (SftpSessionPool.Lease lease = borrow()) {
+            lease.sftp().rm(key);
+        } catch (SftpException se) {
+            if (se.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) return;
+            throw failure("delete", key, se);
+        }
+    }
+
+    @Override
+    public void rename(String fromKey, String toKey) throws IOException {
+        try (SftpSessionPool.Lease lease = borrow()) {
+            ChannelSftp sftp = lease.sftp();
+            directoryCache.ensure(sftp, parentOf(toKey));
+            sftp.rename(fromKey, toKey);
+        } catch (SftpException se) {
+            throw failure("rename", fromKey + " -> " + toKey, se);
+        }
+    }
+
+    @Override
+    public void deleteDirectory(String dirKey) throws IOException {
+        try (SftpSessionPool.Lease lease = borrow()) {
+            lease.sftp().rmdir(dirKey);
+        } catch (SftpException se) {
+            if (se.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) throw failure("rmdir", dirKey, se);
+        } finally {
+            directoryCache.invalidate(dirKey);
+        }
+    }
+
+    @Override
+    public List<StorageStat> list(String dirKey) throws IOException {
+        try (SftpSessionPool.Lease lease = borrow()) {
+            Vector<?> entries = lease.sftp().ls(dirKey);
+            List<StorageStat> out = new ArrayList<>(entries.size());
+            for (Object o : entries) {
+                ChannelSftp.LsEntry e = (ChannelSftp.LsEntry) o;
+                String name = e.getFilename();
+                if (".".equals(name) || "..".equals(name)) continue;
+                out.add(toStat(dirKey + "/" + name, e.getAttrs()));
+            }
+            return out;
+        } catch (SftpException se) {
+            if (se.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) return List.of();
+            throw failure("list", dirKey, se);
+        }
+    }
+
+    private SftpSessionPool.Lease borrow() throws IOException {
+        try {
+            return sessionPool.borrow();
+        } catch (JSchException e) {
+            throw new IOException("SFTP_UNAVAILABLE host=" + sftpConfig.getHost() + ":" + sftpConfig.getPort() + " " + e.getMessage(), e);
+        }
+    }
+
+    private IOException failure(String op, String key, SftpException se) {
+        return new IOException("SFTP_ERROR op=" + op + " path=" + key + " host=" + sftpConfig.getHost() + ":" + sftpConfig.getPort(), se);
+    }
+
+    private static StorageStat toStat(String key, SftpATTRS attrs) {
+        return new StorageStat(key, attrs.getSize(), Instant.ofEpochSecond(attrs.getMTime()), attrs.isDir());
+    }
+
+    private static String parentOf(String key) {
+        int slash = key.lastIndexOf('/');
+        return slash > 0 ? key.substring(0, slash) : "/";
+    }
+
+    private static class ReleasingInputStream extends FilterInputStream {
+        private final SftpSessionPool.Lease lease;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ReleasingInputStream(InputStream in, SftpSessionPool.Lease lease) {
+            super(in);
+            this.lease = lease;
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            try {
+                super.close();
+                lease.close();
+            } catch (Exception e) {
+                lease.invalidate();
+            }
+        }
+    }
+
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
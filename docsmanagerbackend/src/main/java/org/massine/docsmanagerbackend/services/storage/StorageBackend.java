@@ -0,0 +1,42 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Object storage used for file contents. Keys are the absolute paths stored in {@code File.path}.
+ */
+public interface StorageBackend {
+
+    void put(String key, InputStream data) throws IOException;
+
+    /** Appends to the object under {@code key}, creating it when missing. */
+    void append(String key, InputStream data) throws IOException;
+
+    StorageResource get(String key) throws IOException;
+
+    /**
+     * Opens the whole object when its length is already known, letting backends skip the metadata
+     * lookup that {@link #get(String)} needs to report it.
+     */
+    default StorageResource open(String key, long length) throws IOException {
+        return get(key);
+    }
+
+    /** Reads {@code length} bytes starting at {@code offset} without transferring the rest of the object. */
+    StorageResource get(String key, long offset, long length) throws IOException;
+
+    /** Returns {@code null} when nothing exists under {@code key}. */
+    StorageStat stat(String key) throws IOException;
+
+    /** Removing a missing key is not an error. */
+    void delete(String key) throws IOException;
+
+    void rename(String fromKey, String toKey) throws IOException;
+
+    /** Removes an empty directory. Removing a missing directory is not an error. */
+    void deleteDirectory(String dirKey) throws IOException;
+
+    List<StorageStat> list(String dirKey) throws IOException;
+}
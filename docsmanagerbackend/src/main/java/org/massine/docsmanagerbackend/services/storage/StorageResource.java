@@ -0,0 +1,81 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import org.springframework.core.io.InputStreamResource;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single-use stream over a stored object. Closing the stream (which Spring does once the
+ * body has been written) or the resource releases whatever the backend holds open for it,
+ * then runs the actions registered with {@link #onClose}, exactly once.
+ */
+public class StorageResource extends InputStreamResource implements Closeable {
+    private final InputStream stream;
+    private final long length;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final ConcurrentLinkedQueue<Runnable> onClose = new ConcurrentLinkedQueue<>();
+
+    public StorageResource(InputStream stream, long length) {
+        this(new ClosingStream(stream), length);
+    }
+
+    private StorageResource(ClosingStream guarded, long length) {
+        super(guarded);
+        guarded.owner = this;
+        this.stream = guarded.source;
+        this.length = length;
+    }
+
+    public long length() { return length; }
+
+    @Override
+    public long contentLength() { return length; }
+
+    /** Registers an action to run once this resource is closed, right away if it already is. */
+    public StorageResource onClose(Runnable action) {
+        onClose.add(action);
+        if (closed.get()) runOnClose();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        try {
+            release();
+        } finally {
+            runOnClose();
+        }
+    }
+
+    /** Frees what the backend holds for this object. */
+    protected void release() {
+        try { stream.close(); } catch (Exception ignore) {}
+    }
+
+    private void runOnClose() {
+        Runnable action;
+        while ((action = onClose.poll()) != null) {
+            action.run();
+        }
+    }
+
+    private static final class ClosingStream extends FilterInputStream {
+        private final InputStream source;
+        private StorageResource owner;
+
+        private ClosingStream(InputStream source) {
+            super(source);
+            this.source = source;
+        }
+
+        @Override
+        public void close() {
+            owner.close();
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package org.massine.docsmanagerbackend.services.storage;
+
+import java.time.Instant;
+
+public record StorageStat(String key, long size, Instant modifiedAt, boolean directory) {
+}